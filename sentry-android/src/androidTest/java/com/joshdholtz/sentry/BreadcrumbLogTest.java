@@ -0,0 +1,109 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class BreadcrumbLogTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = new File(System.getProperty("java.io.tmpdir"), "breadcrumb-log-test-" + UUID.randomUUID());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testRecoversInOrderAfterReopen() {
+        final BreadcrumbLog log = BreadcrumbLog.open(file);
+        log.append(0, "{\"n\":0}");
+        log.append(1, "{\"n\":1}");
+        log.append(2, "{\"n\":2}");
+
+        assertEquals(BreadcrumbLog.FILE_SIZE, file.length());
+        assertEquals(Arrays.asList("{\"n\":0}", "{\"n\":1}", "{\"n\":2}"), BreadcrumbLog.open(file).recover());
+    }
+
+    public void testKeepsTheNewestWhenFull() {
+        final BreadcrumbLog log = BreadcrumbLog.open(file);
+        final int total = BreadcrumbLog.SLOTS + 5;
+        for (int i = 0; i < total; i++) {
+            log.append(i, "{\"n\":" + i + "}");
+        }
+
+        final List<String> crumbs = log.recover();
+        assertEquals(BreadcrumbLog.SLOTS, crumbs.size());
+        assertEquals("{\"n\":5}", crumbs.get(0));
+        assertEquals("{\"n\":" + (total - 1) + "}", crumbs.get(crumbs.size() - 1));
+    }
+
+    public void testSkipsOversizedCrumbs() {
+        final BreadcrumbLog log = BreadcrumbLog.open(file);
+        final char[] big = new char[BreadcrumbLog.SLOT_SIZE];
+        Arrays.fill(big, 'x');
+        log.append(0, new String(big));
+        log.append(1, "{}");
+
+        assertEquals(Arrays.asList("{}"), log.recover());
+    }
+
+    public void testTornSlotIsSkipped() throws Exception {
+        final BreadcrumbLog log = BreadcrumbLog.open(file);
+        log.append(0, "{\"n\":0}");
+        log.append(1, "{\"n\":1}");
+
+        // Corrupt the JSON of the first slot, as if the process died while writing it.
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(8 + 14);
+        raf.write('X');
+        raf.close();
+
+        assertEquals(Arrays.asList("{\"n\":1}"), BreadcrumbLog.open(file).recover());
+    }
+
+    public void testStateSurvivesReopen() {
+        assertEquals(BreadcrumbLog.STATE_UNKNOWN, BreadcrumbLog.open(file).state());
+
+        BreadcrumbLog.open(file).setState(BreadcrumbLog.STATE_FOREGROUND);
+
+        assertEquals(BreadcrumbLog.STATE_FOREGROUND, BreadcrumbLog.open(file).state());
+    }
+
+    public void testResetForgetsEverything() {
+        final BreadcrumbLog log = BreadcrumbLog.open(file);
+        log.append(0, "{}");
+        log.setState(BreadcrumbLog.STATE_FOREGROUND);
+
+        log.reset();
+
+        final BreadcrumbLog reopened = BreadcrumbLog.open(file);
+        assertTrue(reopened.recover().isEmpty());
+        assertEquals(BreadcrumbLog.STATE_UNKNOWN, reopened.state());
+    }
+
+    public void testCrumbJsonMatchesTheEvent() throws Exception {
+        final Sentry.Breadcrumbs breadcrumbs = new Sentry.Breadcrumbs();
+        final BreadcrumbLog log = BreadcrumbLog.open(file);
+        breadcrumbs.log = log;
+
+        final Sentry.Breadcrumb crumb = new Sentry.Breadcrumb(1500000000L, Sentry.Breadcrumb.Type.Navigation,
+            "", "login", Sentry.SentryEventLevel.INFO);
+        crumb.data.put("from", "home \"quoted\"");
+        crumb.data.put("to", "settings");
+        breadcrumbs.push(crumb);
+        breadcrumbs.push(new Sentry.Breadcrumb(1500000001L, Sentry.Breadcrumb.Type.Default,
+            null, null, Sentry.SentryEventLevel.WARNING));
+
+        final List<String> recovered = log.recover();
+        assertEquals(Sentry.Breadcrumbs.toJson(breadcrumbs.snapshot()).getJSONObject(0).toString(), recovered.get(0));
+        assertEquals(Sentry.Breadcrumbs.toJson(breadcrumbs.snapshot()).getJSONObject(1).toString(), recovered.get(1));
+    }
+}
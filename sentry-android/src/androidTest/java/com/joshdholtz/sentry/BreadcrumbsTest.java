@@ -0,0 +1,106 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BreadcrumbsTest extends TestCase {
+
+    private static Sentry.Breadcrumb crumb(String message) {
+        return new Sentry.Breadcrumb(0, Sentry.Breadcrumb.Type.Default, message, "test", Sentry.SentryEventLevel.INFO);
+    }
+
+    public void testKeepsMostRecentInOrder() throws JSONException {
+        final Sentry.Breadcrumbs breadcrumbs = new Sentry.Breadcrumbs();
+        breadcrumbs.setMaxBreadcrumbs(3);
+        for (int i = 0; i < 10; i++) {
+            breadcrumbs.push(crumb("crumb " + i));
+        }
+
+        final JSONArray current = breadcrumbs.current();
+        assertEquals(3, current.length());
+        assertEquals("crumb 7", current.getJSONObject(0).getString("message"));
+        assertEquals("crumb 8", current.getJSONObject(1).getString("message"));
+        assertEquals("crumb 9", current.getJSONObject(2).getString("message"));
+    }
+
+    // Crumbs beyond the ring's capacity are overwritten, not duplicated.
+    public void testWrapsAround() {
+        final Sentry.Breadcrumbs breadcrumbs = new Sentry.Breadcrumbs();
+        breadcrumbs.setMaxBreadcrumbs(200);
+        for (int i = 0; i < 1000; i++) {
+            breadcrumbs.push(crumb("crumb " + i));
+        }
+
+        final List<Sentry.Breadcrumb> snapshot = breadcrumbs.snapshot();
+        assertEquals(200, snapshot.size());
+        assertEquals("crumb 800", snapshot.get(0).message);
+        assertEquals("crumb 999", snapshot.get(199).message);
+    }
+
+    // Lowering the limit drops crumbs for good, like trimming the old list did.
+    public void testLoweringLimitForgetsCrumbs() {
+        final Sentry.Breadcrumbs breadcrumbs = new Sentry.Breadcrumbs();
+        for (int i = 0; i < 5; i++) {
+            breadcrumbs.push(crumb("crumb " + i));
+        }
+        breadcrumbs.setMaxBreadcrumbs(2);
+        breadcrumbs.setMaxBreadcrumbs(100);
+        assertEquals(2, breadcrumbs.snapshot().size());
+
+        breadcrumbs.push(crumb("crumb 5"));
+        assertEquals(3, breadcrumbs.snapshot().size());
+
+        breadcrumbs.setMaxBreadcrumbs(0);
+        assertEquals(0, breadcrumbs.snapshot().size());
+    }
+
+    // Snapshots taken while writers race must stay ordered and free of duplicates.
+    public void testConcurrentPushAndSnapshot() throws Exception {
+        final Sentry.Breadcrumbs breadcrumbs = new Sentry.Breadcrumbs();
+        breadcrumbs.setMaxBreadcrumbs(200);
+
+        final int writers = 4;
+        final int pushes = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(writers);
+        for (int w = 0; w < writers; w++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < pushes; i++) {
+                        breadcrumbs.push(crumb("x"));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        final AtomicReference<String> failure = new AtomicReference<>();
+        start.countDown();
+        while (done.getCount() > 0) {
+            final List<Sentry.Breadcrumb> snapshot = breadcrumbs.snapshot();
+            if (snapshot.size() > 200) {
+                failure.set("snapshot too large: " + snapshot.size());
+            }
+            for (int i = 1; i < snapshot.size(); i++) {
+                if (snapshot.get(i).sequence <= snapshot.get(i - 1).sequence) {
+                    failure.set("out of order at " + i);
+                }
+            }
+        }
+
+        assertNull(failure.get());
+        assertEquals(200, breadcrumbs.snapshot().size());
+    }
+}
@@ -0,0 +1,57 @@
+package com.joshdholtz.sentry;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectivityMonitorTest extends TestCase {
+
+    private static final long DEBOUNCE_MILLIS = 50;
+
+    private HandlerThread thread;
+    private CountDownLatch reconnected;
+    private ConnectivityMonitor monitor;
+
+    @Override
+    protected void setUp() throws Exception {
+        thread = new HandlerThread("ConnectivityMonitorTest");
+        thread.start();
+        reconnected = new CountDownLatch(1);
+        // Only update(boolean) is used, which never asks the system, so no context is needed.
+        monitor = new ConnectivityMonitor(null, new Handler(thread.getLooper()), new Runnable() {
+            @Override
+            public void run() {
+                reconnected.countDown();
+            }
+        }, DEBOUNCE_MILLIS, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        thread.quit();
+    }
+
+    public void testReconnectIsSentOnceSettled() throws Exception {
+        monitor.update(true);
+
+        assertTrue(reconnected.await(1, TimeUnit.SECONDS));
+    }
+
+    public void testRepeatedConnectedBroadcastKeepsTheReconnect() throws Exception {
+        monitor.update(true);
+        monitor.update(true);
+
+        assertTrue(reconnected.await(1, TimeUnit.SECONDS));
+    }
+
+    public void testGoingOfflineCancelsTheReconnect() throws Exception {
+        monitor.update(true);
+        monitor.update(false);
+
+        assertFalse(reconnected.await(DEBOUNCE_MILLIS * 4, TimeUnit.MILLISECONDS));
+    }
+}
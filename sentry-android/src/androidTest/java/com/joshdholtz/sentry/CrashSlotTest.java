@@ -0,0 +1,111 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class CrashSlotTest extends TestCase {
+
+    private File dir;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "crash-slot-test-" + UUID.randomUUID());
+        dir.mkdirs();
+        file = new File(dir, "slot");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(dir);
+    }
+
+    private static void delete(File f) {
+        final File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    public void testEmptySlot() {
+        final CrashSlot slot = CrashSlot.open(file, 1024);
+
+        assertNotNull(slot);
+        assertEquals(1024, file.length());
+        assertNull(slot.read());
+    }
+
+    public void testSurvivesReopen() {
+        final byte[] payload = "crash".getBytes();
+        assertTrue(CrashSlot.open(file, 1024).write(payload));
+
+        final CrashSlot reopened = CrashSlot.open(file, 1024);
+        assertTrue(Arrays.equals(payload, reopened.read()));
+
+        reopened.clear();
+        assertNull(CrashSlot.open(file, 1024).read());
+    }
+
+    public void testAppendsReports() {
+        final CrashSlot slot = CrashSlot.open(file, 1024);
+
+        assertTrue(slot.write("first".getBytes()));
+        assertTrue(slot.write("second".getBytes()));
+        assertEquals("firstsecond", new String(CrashSlot.open(file, 1024).read()));
+        assertEquals(1024 - 12 - 11, slot.room());
+    }
+
+    public void testRejectsOversizedReport() {
+        final CrashSlot slot = CrashSlot.open(file, 64);
+
+        assertFalse(slot.write(new byte[64]));
+        assertNull(slot.read());
+
+        assertTrue(slot.write(new byte[40]));
+        assertFalse(slot.write(new byte[40]));
+        assertEquals(40, slot.read().length);
+    }
+
+    public void testTornReportIsIgnored() throws Exception {
+        assertTrue(CrashSlot.open(file, 1024).write("crash".getBytes()));
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(14);
+        raf.write('X');
+        raf.close();
+
+        assertNull(CrashSlot.open(file, 1024).read());
+    }
+
+    public void testCrashIsMovedToStorageOnNextLaunch() throws Exception {
+        final Sentry.SentryEventRequest crash = new Sentry.SentryEventRequest(
+            new Sentry.SentryEventBuilder(new IllegalStateException("boom"), Sentry.SentryEventLevel.FATAL));
+        final Sentry.SentryEventRequest pending = new Sentry.SentryEventRequest(
+            new Sentry.SentryEventBuilder().setMessage("queued when the app crashed"));
+
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        EventRecord.write(new DataOutputStream(records), crash);
+        EventRecord.write(new DataOutputStream(records), pending);
+        CrashSlot.open(new File(dir, Sentry.InternalStorage.CRASH_SLOT_NAME), CrashSlot.DEFAULT_SIZE)
+            .write(records.toByteArray());
+
+        final List<Sentry.SentryEventRequest> unsent = new Sentry.InternalStorage(dir).getUnsentRequests();
+        assertEquals(2, unsent.size());
+        assertEquals(crash.uuid, unsent.get(0).uuid);
+        assertEquals(crash.requestData, unsent.get(0).requestData);
+        assertEquals(pending.uuid, unsent.get(1).uuid);
+
+        // Only moved once.
+        assertEquals(2, new Sentry.InternalStorage(dir).getUnsentRequests().size());
+    }
+}
@@ -0,0 +1,157 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DeliveryExecutorTest extends TestCase {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Runnable> spilledTasks = Collections.synchronizedList(new ArrayList<Runnable>());
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    private DeliveryExecutor executor(Sentry.OverflowPolicy policy, long blockTimeoutMillis) {
+        return new DeliveryExecutor(1, 2, policy, blockTimeoutMillis, Executors.defaultThreadFactory(),
+            new DeliveryExecutor.Spiller() {
+                @Override
+                public boolean spill(Runnable task) {
+                    spilledTasks.add(task);
+                    return true;
+                }
+            }, dropped, spilled);
+    }
+
+    private Runnable blocker() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private Runnable task(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    // Occupies the only worker and fills the queue with "a" and "b".
+    private void fill(DeliveryExecutor executor) throws Exception {
+        executor.execute(blocker());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(task("a"));
+        executor.execute(task("b"));
+    }
+
+    private void drain(DeliveryExecutor executor) throws Exception {
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    public void testDropNewest() throws Exception {
+        final DeliveryExecutor executor = executor(Sentry.OverflowPolicy.DROP_NEWEST, 0);
+        fill(executor);
+        executor.execute(task("c"));
+        drain(executor);
+
+        assertEquals(Arrays.asList("a", "b"), ran);
+        assertEquals(1, dropped.get());
+        assertEquals(0, spilled.get());
+    }
+
+    public void testDropOldest() throws Exception {
+        final DeliveryExecutor executor = executor(Sentry.OverflowPolicy.DROP_OLDEST, 0);
+        fill(executor);
+        executor.execute(task("c"));
+        drain(executor);
+
+        assertEquals(Arrays.asList("b", "c"), ran);
+        assertEquals(1, dropped.get());
+    }
+
+    public void testSpillToDisk() throws Exception {
+        final DeliveryExecutor executor = executor(Sentry.OverflowPolicy.SPILL_TO_DISK, 0);
+        fill(executor);
+        final Runnable c = task("c");
+        executor.execute(c);
+        drain(executor);
+
+        assertEquals(Arrays.asList("a", "b"), ran);
+        assertEquals(Collections.singletonList(c), spilledTasks);
+        assertEquals(0, dropped.get());
+        assertEquals(1, spilled.get());
+    }
+
+    public void testBlockWaitsForRoom() throws Exception {
+        final DeliveryExecutor executor = executor(Sentry.OverflowPolicy.BLOCK, 5000);
+        fill(executor);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                }
+                release.countDown();
+            }
+        }).start();
+        executor.execute(task("c"));
+        drain(executor);
+
+        assertEquals(Arrays.asList("a", "b", "c"), ran);
+        assertEquals(0, spilled.get());
+    }
+
+    public void testBlockSpillsAfterTimeout() throws Exception {
+        final DeliveryExecutor executor = executor(Sentry.OverflowPolicy.BLOCK, 50);
+        fill(executor);
+        executor.execute(task("c"));
+        drain(executor);
+
+        assertEquals(Arrays.asList("a", "b"), ran);
+        assertEquals(1, spilled.get());
+    }
+
+    public void testAwaitRoomWhileFull() throws Exception {
+        final DeliveryExecutor executor = executor(Sentry.OverflowPolicy.DROP_NEWEST, 0);
+        fill(executor);
+
+        assertEquals(0, executor.awaitRoom(50));
+        drain(executor);
+    }
+
+    public void testAwaitRoomWakesWhenWorkerTakesATask() throws Exception {
+        final DeliveryExecutor executor = executor(Sentry.OverflowPolicy.DROP_NEWEST, 0);
+        fill(executor);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                release.countDown();
+            }
+        }).start();
+
+        assertTrue(executor.awaitRoom(5000) >= 1);
+        drain(executor);
+    }
+}
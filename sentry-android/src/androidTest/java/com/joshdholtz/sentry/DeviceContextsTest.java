@@ -0,0 +1,55 @@
+package com.joshdholtz.sentry;
+
+import android.content.res.Configuration;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class DeviceContextsTest extends TestCase {
+
+    private static String toJson(DeviceContexts contexts) {
+        final Map<String, Object> event = new HashMap<>();
+        event.put("contexts", contexts);
+        return JsonWriter.toJson(event);
+    }
+
+    private static DeviceContexts contexts(String orientation) throws JSONException {
+        final JSONObject device = new JSONObject();
+        device.put("family", "google");
+        device.put("orientation", orientation);
+        device.put("screen_resolution", "1920x1080");
+        final JSONObject os = new JSONObject();
+        os.put("type", "os");
+        os.put("name", "Android");
+        return new DeviceContexts(new Sentry.AppInfo("com.example.app", "1.0", 1), os, device, null);
+    }
+
+    public void testEmptyBeforeInit() {
+        assertEquals("{\"contexts\":{}}", toJson(DeviceContexts.EMPTY));
+    }
+
+    public void testMatchesOrgJson() throws JSONException {
+        final DeviceContexts contexts = contexts("portrait");
+        final JSONObject expected = new JSONObject()
+            .put("os", new JSONObject().put("type", "os").put("name", "Android"))
+            .put("device", new JSONObject().put("family", "google").put("orientation", "portrait")
+                .put("screen_resolution", "1920x1080"));
+
+        assertEquals("{\"contexts\":" + expected + "}", toJson(contexts));
+    }
+
+    public void testOrientationChange() throws JSONException {
+        final DeviceContexts portrait = contexts("portrait");
+
+        final DeviceContexts landscape = portrait.withOrientation(Configuration.ORIENTATION_LANDSCAPE);
+
+        assertEquals(toJson(portrait).replace("portrait", "landscape"), toJson(landscape));
+        assertTrue(toJson(portrait).contains("portrait"));
+        assertSame(landscape, landscape.withOrientation(Configuration.ORIENTATION_LANDSCAPE));
+    }
+}
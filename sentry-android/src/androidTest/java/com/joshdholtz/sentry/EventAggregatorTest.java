@@ -0,0 +1,127 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class EventAggregatorTest extends TestCase {
+
+    private static Throwable thrownAt(int line) {
+        final Throwable t = new IllegalStateException("broken");
+        t.setStackTrace(new StackTraceElement[]{
+            new StackTraceElement("com.example.Loop", "tick", "Loop.java", line),
+            new StackTraceElement("com.example.Loop", "run", "Loop.java", 10),
+        });
+        return t;
+    }
+
+    private static long fingerprint(Sentry.SentryEventBuilder builder) {
+        return EventAggregator.fingerprint(builder.event);
+    }
+
+    public void testSameErrorSameFingerprint() {
+        final long first = fingerprint(new Sentry.SentryEventBuilder().setException(thrownAt(42)));
+        final long second = fingerprint(new Sentry.SentryEventBuilder().setException(thrownAt(42)));
+
+        assertEquals(first, second);
+    }
+
+    public void testFingerprintDependsOnFramesTypeAndCulprit() {
+        final long base = fingerprint(new Sentry.SentryEventBuilder().setException(thrownAt(42)));
+
+        assertFalse(base == fingerprint(new Sentry.SentryEventBuilder().setException(thrownAt(43))));
+        assertFalse(base == fingerprint(new Sentry.SentryEventBuilder()
+            .setException(new IllegalArgumentException("broken"))));
+        assertFalse(base == fingerprint(new Sentry.SentryEventBuilder()
+            .setException(thrownAt(42)).setCulprit("com.example.Loop.tick")));
+    }
+
+    public void testMessageEventsUseTheMessage() {
+        final long a = fingerprint(new Sentry.SentryEventBuilder().setMessage("a"));
+
+        assertEquals(a, fingerprint(new Sentry.SentryEventBuilder().setMessage("a")));
+        assertFalse(a == fingerprint(new Sentry.SentryEventBuilder().setMessage("b")));
+    }
+
+    public void testRepeatsWithinWindowAreCounted() {
+        final EventAggregator<String> aggregator = new EventAggregator<>(1000, 10);
+
+        assertEquals(1, aggregator.record(7, "first", 0));
+        for (int i = 1; i < 100; i++) {
+            assertEquals(EventAggregator.NOT_SENT, aggregator.record(7, "repeat " + i, i));
+        }
+
+        // A repeat after the window, before its summary was taken, stands for itself and the
+        // 99 suppressed ones.
+        assertEquals(100, aggregator.record(7, "late", 1000));
+        assertEquals(EventAggregator.NOT_SENT, aggregator.record(7, "again", 1001));
+        assertEquals(2, aggregator.record(7, "later", 2000));
+        assertTrue(aggregator.closeWindows(2000).isEmpty());
+    }
+
+    public void testStormThatStopsIsSummarisedWhenTheWindowCloses() {
+        final EventAggregator<String> aggregator = new EventAggregator<>(1000, 10);
+
+        aggregator.record(7, "first", 0);
+        for (int i = 1; i < 100; i++) {
+            aggregator.record(7, "repeat " + i, i);
+        }
+
+        assertEquals(1000, aggregator.nextClose());
+        assertTrue(aggregator.closeWindows(999).isEmpty());
+
+        final List<EventAggregator.Summary<String>> summaries = aggregator.closeWindows(1000);
+        assertEquals(1, summaries.size());
+        assertEquals("repeat 99", summaries.get(0).event);
+        assertEquals(99, summaries.get(0).occurrences);
+
+        // Nothing left to report, and the next occurrence starts a new window.
+        assertEquals(-1, aggregator.nextClose());
+        assertEquals(1, aggregator.record(7, "next", 1500));
+    }
+
+    public void testDistinctEventsAreIndependent() {
+        final EventAggregator<String> aggregator = new EventAggregator<>(1000, 10);
+
+        assertEquals(1, aggregator.record(1, "a", 0));
+        assertEquals(1, aggregator.record(2, "b", 0));
+        assertEquals(EventAggregator.NOT_SENT, aggregator.record(1, "a", 1));
+    }
+
+    public void testLeastRecentlyUsedFingerprintIsEvicted() {
+        final EventAggregator<String> aggregator = new EventAggregator<>(1000, 2);
+
+        aggregator.record(1, "a", 0);
+        aggregator.record(2, "b", 0);
+        aggregator.record(1, "a", 1); // 1 is now the most recently used
+        aggregator.record(3, "c", 2); // evicts 2
+
+        assertEquals(EventAggregator.NOT_SENT, aggregator.record(1, "a", 3));
+        assertEquals(1, aggregator.record(2, "b", 4));
+    }
+
+    public void testEvictedRepeatsAreStillSummarised() {
+        final EventAggregator<String> aggregator = new EventAggregator<>(1000, 1);
+
+        aggregator.record(1, "a", 0);
+        aggregator.record(1, "a again", 1);
+        aggregator.record(2, "b", 2); // evicts 1 with a repeat pending
+
+        assertEquals(0, aggregator.nextClose());
+        final List<EventAggregator.Summary<String>> summaries = aggregator.closeWindows(3);
+        assertEquals(1, summaries.size());
+        assertEquals("a again", summaries.get(0).event);
+        assertEquals(1, summaries.get(0).occurrences);
+    }
+
+    public void testDrainTakesOpenWindows() {
+        final EventAggregator<String> aggregator = new EventAggregator<>(1000, 10);
+
+        aggregator.record(1, "a", 0);
+        aggregator.record(1, "a", 1);
+        aggregator.record(1, "a", 2);
+
+        assertEquals(2, aggregator.drain().get(0).occurrences);
+        assertTrue(aggregator.drain().isEmpty());
+    }
+}
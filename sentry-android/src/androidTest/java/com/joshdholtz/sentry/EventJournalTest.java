@@ -0,0 +1,172 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+public class EventJournalTest extends TestCase {
+
+    // Run compaction inline so the tests can observe its effect.
+    private static final Executor INLINE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "journal-test-" + UUID.randomUUID());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private EventJournal open(long segmentSize) {
+        final EventJournal journal = new EventJournal(dir, segmentSize, INLINE);
+        journal.open();
+        return journal;
+    }
+
+    public void testAppendAckAndReopen() {
+        final UUID a = UUID.randomUUID();
+        final UUID b = UUID.randomUUID();
+
+        EventJournal journal = open(EventJournal.DEFAULT_SEGMENT_SIZE);
+        assertTrue(journal.append(a, "a".getBytes()));
+        assertTrue(journal.append(b, "b".getBytes()));
+        assertFalse(journal.append(a, "a".getBytes()));
+        journal.ack(a);
+
+        journal = open(EventJournal.DEFAULT_SEGMENT_SIZE);
+        assertEquals(Arrays.asList(b), journal.pending());
+        assertEquals("b", new String(journal.read(b)));
+        assertNull(journal.read(a));
+    }
+
+    // A half-written record at the tail is dropped, everything before it survives.
+    public void testTornWriteLosesOnlyLastRecord() throws Exception {
+        final UUID a = UUID.randomUUID();
+        final UUID b = UUID.randomUUID();
+
+        final EventJournal journal = open(EventJournal.DEFAULT_SEGMENT_SIZE);
+        journal.append(a, "first".getBytes());
+        journal.append(b, "second".getBytes());
+
+        final File segment = dir.listFiles()[0];
+        final RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        final EventJournal reopened = open(EventJournal.DEFAULT_SEGMENT_SIZE);
+        assertEquals(Arrays.asList(a), reopened.pending());
+        assertEquals("first", new String(reopened.read(a)));
+
+        // The journal must still be appendable after truncation.
+        final UUID c = UUID.randomUUID();
+        reopened.append(c, "third".getBytes());
+        assertEquals(Arrays.asList(a, c), open(EventJournal.DEFAULT_SEGMENT_SIZE).pending());
+    }
+
+    // Acknowledged segments are removed, live events are carried forward.
+    public void testCompaction() {
+        final long segmentSize = 4 * (EventJournal.HEADER_LENGTH + EventJournal.META_LENGTH + 10);
+        final EventJournal journal = open(segmentSize);
+
+        final UUID[] uuids = new UUID[12];
+        for (int i = 0; i < uuids.length; i++) {
+            uuids[i] = UUID.randomUUID();
+            journal.append(uuids[i], "0123456789".getBytes());
+        }
+        final int segmentsBefore = dir.listFiles().length;
+        assertTrue(segmentsBefore > 2);
+
+        final UUID keep = uuids[1];
+        for (UUID uuid : uuids) {
+            if (uuid != keep) {
+                journal.ack(uuid);
+            }
+        }
+        journal.compact();
+
+        assertTrue(dir.listFiles().length < segmentsBefore);
+        assertEquals(Arrays.asList(keep), journal.pending());
+        assertEquals("0123456789", new String(journal.read(keep)));
+        assertEquals(Arrays.asList(keep), open(segmentSize).pending());
+    }
+
+    public void testCountLimitEvictsLowestPriorityFirst() {
+        final UUID fatal = UUID.randomUUID();
+        final UUID oldInfo = UUID.randomUUID();
+        final UUID newInfo = UUID.randomUUID();
+        final UUID error = UUID.randomUUID();
+
+        final EventJournal journal = open(EventJournal.DEFAULT_SEGMENT_SIZE);
+        journal.setLimits(2, 0, 0);
+        journal.append(fatal, "f".getBytes(), 4, 1000);
+        journal.append(oldInfo, "i".getBytes(), 1, 1000);
+        journal.append(newInfo, "i".getBytes(), 1, 1000);
+        journal.append(error, "e".getBytes(), 3, 1000);
+
+        final List<EventJournal.Eviction> evicted = journal.trim(1000);
+
+        assertEquals(2, evicted.size());
+        assertEquals(oldInfo, evicted.get(0).uuid);
+        assertEquals(newInfo, evicted.get(1).uuid);
+        assertEquals(Sentry.EvictionCause.MAX_EVENTS, evicted.get(0).cause);
+        assertEquals(Arrays.asList(fatal, error), journal.pending());
+        assertTrue(journal.trim(1000).isEmpty());
+    }
+
+    public void testByteLimit() {
+        final UUID a = UUID.randomUUID();
+        final UUID b = UUID.randomUUID();
+
+        final EventJournal journal = open(EventJournal.DEFAULT_SEGMENT_SIZE);
+        journal.append(a, new byte[100], 2, 1000);
+        journal.append(b, new byte[100], 2, 1000);
+        journal.setLimits(0, 150, 0);
+
+        final List<EventJournal.Eviction> evicted = journal.trim(1000);
+
+        assertEquals(1, evicted.size());
+        assertEquals(a, evicted.get(0).uuid);
+        assertEquals(Sentry.EvictionCause.MAX_BYTES, evicted.get(0).cause);
+        assertTrue(journal.bytes() <= 150);
+    }
+
+    public void testAgeLimitSurvivesReopen() {
+        final UUID old = UUID.randomUUID();
+        final UUID fresh = UUID.randomUUID();
+
+        EventJournal journal = open(EventJournal.DEFAULT_SEGMENT_SIZE);
+        journal.append(old, "old".getBytes(), 4, 1000);
+        journal.append(fresh, "fresh".getBytes(), 0, 5000);
+
+        journal = open(EventJournal.DEFAULT_SEGMENT_SIZE);
+        journal.setLimits(0, 0, 2000);
+        final List<EventJournal.Eviction> evicted = journal.trim(6000);
+
+        assertEquals(1, evicted.size());
+        assertEquals(old, evicted.get(0).uuid);
+        assertEquals(4, evicted.get(0).priority);
+        assertEquals(Sentry.EvictionCause.MAX_AGE, evicted.get(0).cause);
+        assertEquals(Arrays.asList(fresh), open(EventJournal.DEFAULT_SEGMENT_SIZE).pending());
+        assertEquals("fresh", new String(journal.read(fresh)));
+    }
+}
@@ -0,0 +1,96 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class EventRecordTest extends TestCase {
+
+    private static Sentry.SentryEventRequest request(String message) {
+        return new Sentry.SentryEventRequest(new Sentry.SentryEventBuilder().setMessage(message));
+    }
+
+    private static String repeat(String s, int times) {
+        final StringBuilder out = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            out.append(s);
+        }
+        return out.toString();
+    }
+
+    public void testRoundTrip() throws IOException {
+        final Sentry.SentryEventRequest request = request("héllo wörld");
+
+        final Sentry.SentryEventRequest decoded = EventRecord.decode(request.uuid, EventRecord.encode(request));
+
+        assertEquals(request.uuid, decoded.uuid);
+        assertEquals(request.requestData, decoded.requestData);
+    }
+
+    public void testJournalRecordLeavesOutTheUuid() throws IOException {
+        final Sentry.SentryEventRequest request = request("hello");
+
+        final byte[] encoded = EventRecord.encode(request);
+
+        assertEquals(0, encoded[5] & EventRecord.FLAG_UUID);
+        assertEquals(EventRecord.HEADER_LENGTH + request.requestData.length(), encoded.length);
+        try {
+            EventRecord.decode(null, encoded);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testLargeEventsAreDeflated() throws IOException {
+        final Sentry.SentryEventRequest request = request(repeat("at com.example.Widget.onClick ", 100));
+
+        final byte[] encoded = EventRecord.encode(request);
+
+        assertTrue(encoded.length < request.requestData.length() / 2);
+        assertEquals(EventRecord.FLAG_DEFLATED, encoded[5] & EventRecord.FLAG_DEFLATED);
+        assertEquals(request.requestData, EventRecord.decode(request.uuid, encoded).requestData);
+    }
+
+    public void testReadsRecordsOneAtATime() throws IOException {
+        final Sentry.SentryEventRequest first = request("first");
+        final Sentry.SentryEventRequest second = request(repeat("second", 200));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        EventRecord.write(out, first);
+        EventRecord.write(out, second);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(first.uuid, EventRecord.read(in).uuid);
+        assertEquals(second.requestData, EventRecord.read(in).requestData);
+        assertNull(EventRecord.read(in));
+    }
+
+    public void testTornRecordIsRejected() throws IOException {
+        final Sentry.SentryEventRequest request = request("hello");
+        final byte[] encoded = EventRecord.encode(request);
+
+        try {
+            EventRecord.decode(request.uuid, Arrays.copyOf(encoded, encoded.length - 2));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testNewerVersionIsRejected() throws IOException {
+        final Sentry.SentryEventRequest request = request("hello");
+        final byte[] encoded = EventRecord.encode(request);
+        encoded[4] = EventRecord.VERSION + 1;
+
+        try {
+            EventRecord.decode(request.uuid, encoded);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
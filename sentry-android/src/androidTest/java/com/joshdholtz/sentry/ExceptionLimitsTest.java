@@ -0,0 +1,105 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ExceptionLimitsTest extends TestCase {
+
+    private static StackTraceElement frame(String method) {
+        return new StackTraceElement("com.example.app.Widget", method, "Widget.java", 1);
+    }
+
+    private static StackTraceElement[] frames(String... methods) {
+        final StackTraceElement[] frames = new StackTraceElement[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            frames[i] = frame(methods[i]);
+        }
+        return frames;
+    }
+
+    public void testShortTraceIsUntouched() {
+        final StackTraceElement[] trace = frames("a", "b", "c");
+
+        final ExceptionLimits.Frames result = ExceptionLimits.DEFAULT.apply(trace);
+
+        assertSame(trace, result.frames);
+        assertNull(result.omitted);
+    }
+
+    public void testKeepsHeadAndTail() {
+        final StackTraceElement[] trace = frames("a", "b", "c", "d", "e", "f", "g");
+
+        final ExceptionLimits.Frames result = new ExceptionLimits(0, 4, false).apply(trace);
+
+        assertTrue(Arrays.equals(frames("a", "b", "f", "g"), result.frames));
+        assertTrue(Arrays.equals(new int[]{0, 3, 0, 0}, result.omitted));
+    }
+
+    public void testFoldsRecursion() {
+        final StackTraceElement[] trace = frames("top", "f", "g", "f", "g", "f", "g", "f", "g", "main");
+
+        final ExceptionLimits.Frames result = new ExceptionLimits(0, 0, true).apply(trace);
+
+        assertTrue(Arrays.equals(frames("top", "f", "g", "main"), result.frames));
+        assertTrue(Arrays.equals(new int[]{0, 0, 6, 0}, result.omitted));
+    }
+
+    public void testShortRepeatsAreKept() {
+        final StackTraceElement[] trace = frames("f", "f", "main");
+
+        assertNull(new ExceptionLimits(0, 0, true).apply(trace).omitted);
+    }
+
+    public void testStackOverflowIsBounded() {
+        final StackTraceElement[] trace = new StackTraceElement[1024];
+        for (int i = 0; i < trace.length; i++) {
+            trace[i] = frame(i % 2 == 0 ? "even" : "odd");
+        }
+
+        final ExceptionLimits.Frames result = ExceptionLimits.DEFAULT.apply(trace);
+
+        assertEquals(2, result.frames.length);
+        assertEquals(1022, result.omitted[1]);
+    }
+
+    public void testGapsAreMergedWhenTruncating() {
+        final StackTraceElement[] trace = frames("a", "r", "r", "r", "r", "b", "c", "d", "e");
+
+        final ExceptionLimits.Frames result = new ExceptionLimits(0, 4, true).apply(trace);
+
+        // Folding leaves a r(+3) b c d e; truncating drops r, b and c.
+        assertTrue(Arrays.equals(frames("a", "r", "d", "e"), result.frames));
+        assertTrue(Arrays.equals(new int[]{0, 5, 0, 0}, result.omitted));
+    }
+
+    public void testCauseCycleStops() {
+        final Exception first = new Exception("first");
+        final Exception second = new Exception("second", first);
+        first.initCause(second);
+
+        final List<Throwable> causes = ExceptionLimits.DEFAULT.causes(first);
+
+        assertEquals(Arrays.<Throwable>asList(first, second), causes);
+    }
+
+    public void testMaxCauses() {
+        Throwable t = new Exception("root");
+        for (int i = 0; i < 20; i++) {
+            t = new Exception("wrapper " + i, t);
+        }
+
+        assertEquals(3, new ExceptionLimits(3, 0, true).causes(t).size());
+        assertEquals(21, new ExceptionLimits(0, 0, true).causes(t).size());
+    }
+
+    public void testOmittedFramesAreMarked() {
+        final Throwable t = new IllegalStateException("deep");
+        t.setStackTrace(frames("top", "f", "f", "f", "f", "main"));
+
+        final String json = JsonWriter.toJson(new Sentry.SentryEventBuilder().setException(t).event);
+
+        assertTrue(json.contains("{\"function\":\"<frames omitted>\",\"in_app\":false,\"vars\":{\"count\":3}}"));
+    }
+}
@@ -0,0 +1,60 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class FrameCacheTest extends TestCase {
+
+    private static StackTraceElement[] trace() {
+        return new StackTraceElement[]{
+            new StackTraceElement("com.example.app.Widget", "onClick", "Widget.java", 42),
+            new StackTraceElement("android.view.View", "performClick", "View.java", 5610),
+            new StackTraceElement("dalvik.system.NativeStart", "main", null, -2),
+        };
+    }
+
+    public void testTraceMatchesOrgJson() throws Exception {
+        final StackTraceElement[] trace = trace();
+
+        final String json = new FrameCache(FrameClassifier.DEFAULT).trace(trace);
+
+        assertEquals(OrgJsonFrames.stackTrace(trace).toString(), json);
+    }
+
+    public void testRepeatedTraceIsReused() {
+        final FrameCache cache = new FrameCache(FrameClassifier.DEFAULT);
+
+        final String first = cache.trace(trace());
+        final String second = cache.trace(trace());
+
+        assertSame(first, second);
+        assertSame(cache.frame(trace()[0]), cache.frame(trace()[0]));
+    }
+
+    public void testDifferentTraceIsNotReused() {
+        final FrameCache cache = new FrameCache(FrameClassifier.DEFAULT);
+        final StackTraceElement[] trace = trace();
+        final String first = cache.trace(trace);
+
+        final StackTraceElement[] changed = Arrays.copyOf(trace, trace.length);
+        changed[0] = new StackTraceElement("com.example.app.Widget", "onClick", "Widget.java", 43);
+
+        assertFalse(first.equals(cache.trace(changed)));
+        assertTrue(cache.trace(changed).contains("\"lineno\":43"));
+    }
+
+    public void testUsesItsClassifier() {
+        final StackTraceElement frame = new StackTraceElement("android.view.View", "performClick", "View.java", 1);
+        final FrameClassifier includesAndroid =
+            new FrameClassifier(Collections.singletonList("android.view"), FrameClassifier.DEFAULT_EXCLUDES);
+
+        assertTrue(new FrameCache(FrameClassifier.DEFAULT).frame(frame).contains("\"in_app\":false"));
+        assertTrue(new FrameCache(includesAndroid).frame(frame).contains("\"in_app\":true"));
+    }
+
+    public void testEmptyTrace() {
+        assertEquals("{\"frames\":[]}", new FrameCache(FrameClassifier.DEFAULT).trace(new StackTraceElement[0]));
+    }
+}
@@ -0,0 +1,69 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class FrameClassifierTest extends TestCase {
+
+    // The regex the client used to classify frames with, kept as the reference definition of
+    // the default excludes:
+    // java.*
+    // android.*
+    // com.android.*
+    // com.google.android.*
+    // dalvik.system.*
+    static final String INTERNAL_PACKAGE_REGEX = "^(java|android|com\\.android|com\\.google\\.android|dalvik\\.system)\\..*";
+
+    // The trie must agree with the reference regex on the default package list.
+    public void testMatchesDefaultRegex() {
+        final String[] classes = {
+            "java.util.List",
+            "javax.net.ssl.SSLSocket",
+            "java",
+            "android.os.Handler",
+            "androidx.core.Foo",
+            "com.android.internal.os.ZygoteInit",
+            "com.androidx.Foo",
+            "com.google.android.gms.Location",
+            "com.google.common.base.Joiner",
+            "dalvik.system.NativeStart",
+            "dalvik.Foo",
+            "com.example.widget",
+            "sentry.client.stack",
+        };
+        for (String c : classes) {
+            assertEquals(c, !c.matches(INTERNAL_PACKAGE_REGEX),
+                FrameClassifier.DEFAULT.isInApp(c));
+        }
+    }
+
+    public void testLongestPrefixWins() {
+        final FrameClassifier classifier = FrameClassifier.DEFAULT
+            .withInclude("com.google.android.apps.example")
+            .withExclude("com.example.vendor.");
+
+        assertTrue(classifier.isInApp("com.google.android.apps.example.MainActivity"));
+        assertFalse(classifier.isInApp("com.google.android.gms.Location"));
+        assertFalse(classifier.isInApp("com.example.vendor.Sdk"));
+        assertTrue(classifier.isInApp("com.example.vendorapp.Main"));
+        assertTrue(classifier.isInApp("com.example.Main"));
+    }
+
+    public void testIncludeBeatsExcludeOfSameLength() {
+        final FrameClassifier classifier = new FrameClassifier(
+            Arrays.asList("com.example"), Arrays.asList("com.example"));
+        assertTrue(classifier.isInApp("com.example.Main"));
+    }
+
+    // Results stay correct once the cache has been cleared for being full.
+    public void testCacheBound() {
+        final FrameClassifier classifier = new FrameClassifier(
+            Collections.<String>emptyList(), Arrays.asList("lib"));
+        for (int i = 0; i < 5000; i++) {
+            assertFalse(classifier.isInApp("lib.Class" + i));
+            assertTrue(classifier.isInApp("app.Class" + i));
+        }
+    }
+}
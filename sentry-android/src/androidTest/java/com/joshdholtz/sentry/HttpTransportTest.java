@@ -0,0 +1,93 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPInputStream;
+
+public class HttpTransportTest extends TestCase {
+
+    private StubHttpServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new StubHttpServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    public void testSendsEventWithHeaders() throws Exception {
+        final HttpTransport transport = new HttpTransport(server.url("/api/42/store/"), "Sentry sentry_key=abc", true);
+
+        assertEquals(200, transport.send("{\"message\":\"h\u00e9llo\"}").status);
+
+        assertEquals(1, server.requests.size());
+        final StubHttpServer.Request request = server.requests.get(0);
+        assertEquals("POST", request.method);
+        assertEquals("/api/42/store/", request.path);
+        assertEquals("Sentry sentry_key=abc", request.headers.get("x-sentry-auth"));
+        assertEquals("application/json; charset=UTF-8", request.headers.get("content-type"));
+        assertEquals("{\"message\":\"h\u00e9llo\"}", new String(request.body, "UTF-8"));
+    }
+
+    // A burst of events must share a single connection.
+    public void testReusesConnection() throws Exception {
+        final HttpTransport transport = new HttpTransport(server.url("/api/42/store/"), "auth", true);
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(200, transport.send("{\"i\":" + i + "}").status);
+        }
+
+        assertEquals(50, server.requests.size());
+        assertEquals(1, server.connections.get());
+    }
+
+    // Error responses must not poison the pool either.
+    public void testReusesConnectionAfterError() throws Exception {
+        final HttpTransport transport = new HttpTransport(server.url("/api/42/store/"), "auth", true);
+        server.enqueue(new StubHttpServer.Response(500));
+
+        assertEquals(500, transport.send("{}").status);
+        assertEquals(200, transport.send("{}").status);
+        assertEquals(1, server.connections.get());
+    }
+
+    public void testGzip() throws Exception {
+        final HttpTransport transport = new HttpTransport(server.url("/api/42/store/"), "auth", true);
+        transport.setCompress(true);
+
+        final StringBuilder event = new StringBuilder("{\"breadcrumbs\":[");
+        for (int i = 0; i < 200; i++) {
+            event.append("{\"category\":\"ui.click\",\"message\":\"button\"},");
+        }
+        event.append("{}]}");
+
+        assertEquals(200, transport.send(event.toString()).status);
+        assertEquals(200, transport.send(event.toString()).status);
+
+        final StubHttpServer.Request request = server.requests.get(0);
+        assertEquals("gzip", request.headers.get("content-encoding"));
+        assertEquals(event.toString(), gunzip(request.body));
+
+        final long plain = event.length() * 2;
+        final long wire = request.body.length + server.requests.get(1).body.length;
+        assertEquals(plain - wire, transport.bytesSaved());
+        assertTrue(transport.bytesSaved() > plain / 2);
+        assertEquals(1, server.connections.get());
+    }
+
+    private static String gunzip(byte[] body) throws Exception {
+        final GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[512];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,95 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.UUID;
+
+public class InternalStorageTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "internal-storage-test-" + UUID.randomUUID());
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(dir);
+    }
+
+    private static void delete(File f) {
+        final File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    private static Sentry.SentryEventRequest request(String message) {
+        return new Sentry.SentryEventRequest(new Sentry.SentryEventBuilder().setMessage(message));
+    }
+
+    public void testBacklogIsReadOneEventAtATime() {
+        final Sentry.SentryEventRequest first = request("first");
+        final Sentry.SentryEventRequest second = request("second");
+        final Sentry.InternalStorage storage = new Sentry.InternalStorage(dir);
+        storage.addRequest(first);
+        storage.addRequest(second);
+
+        final Sentry.InternalStorage reopened = new Sentry.InternalStorage(dir);
+
+        assertEquals(Arrays.asList(first.uuid, second.uuid), reopened.getUnsentIds());
+        assertEquals(second.requestData, reopened.getRequest(second.uuid).requestData);
+    }
+
+    public void testSentEventIsNotReadBack() {
+        final Sentry.SentryEventRequest request = request("sent");
+        final Sentry.InternalStorage storage = new Sentry.InternalStorage(dir);
+        storage.addRequest(request);
+
+        storage.removeBuilder(request);
+
+        assertNull(storage.getRequest(request.uuid));
+        assertTrue(new Sentry.InternalStorage(dir).getUnsentIds().isEmpty());
+    }
+
+    public void testAddingTwiceStoresOnce() {
+        final Sentry.SentryEventRequest request = request("twice");
+        final Sentry.InternalStorage storage = new Sentry.InternalStorage(dir);
+
+        storage.addRequest(request);
+        storage.addRequest(request);
+
+        assertEquals(1, storage.getUnsentRequests().size());
+    }
+
+    public void testFatalEventsOutliveInfo() {
+        final Sentry.SentryEventRequest fatal = new Sentry.SentryEventRequest(
+            new Sentry.SentryEventBuilder().setMessage("fatal").setLevel(Sentry.SentryEventLevel.FATAL));
+        final Sentry.SentryEventRequest info = new Sentry.SentryEventRequest(
+            new Sentry.SentryEventBuilder().setMessage("info").setLevel(Sentry.SentryEventLevel.INFO));
+        final Sentry.InternalStorage storage = new Sentry.InternalStorage(dir, 1, 0, 0);
+        final long evictedBefore = Sentry.getEvictedEventCount();
+
+        storage.addRequest(fatal);
+        storage.addRequest(info);
+
+        assertEquals(Arrays.asList(fatal.uuid), storage.getUnsentIds());
+        assertEquals(evictedBefore + 1, Sentry.getEvictedEventCount());
+    }
+
+    public void testRequestsWithTheSameIdAreEqual() {
+        final Sentry.SentryEventRequest request = request("equal");
+        final Sentry.SentryEventRequest copy = new Sentry.SentryEventRequest(
+            UUID.fromString(request.uuid.toString()), request.requestData);
+
+        assertEquals(request, copy);
+        assertEquals(request.hashCode(), copy.hashCode());
+    }
+}
@@ -0,0 +1,73 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Iso8601Test extends TestCase {
+
+    private static String reference(long millis, String pattern) {
+        final SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    public void testKnownValues() {
+        assertEquals("1970-01-01T00:00:00", Iso8601.format(0));
+        assertEquals("2011-05-02T17:41:36", Iso8601.format(1304358096000L));
+        assertEquals("2011-05-02T17:41:36.789", Iso8601.format(1304358096789L, true));
+        assertEquals("1969-12-31T23:59:59.999", Iso8601.format(-1, true));
+        assertEquals("2000-02-29T12:00:00", Iso8601.format(951825600000L));
+    }
+
+    public void testMatchesSimpleDateFormat() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            // Anywhere from 1900 to 2100.
+            final long millis = -2208988800000L + (long) (random.nextDouble() * 6311433600000L);
+            assertEquals(reference(millis, "yyyy-MM-dd'T'HH:mm:ss"), Iso8601.format(millis));
+            assertEquals(reference(millis, "yyyy-MM-dd'T'HH:mm:ss.SSS"), Iso8601.format(millis, true));
+        }
+    }
+
+    // The shared SimpleDateFormat this replaces produced garbage under concurrent use.
+    public void testConcurrentUse() throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> failures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final long seed = t;
+                failures.add(pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        final Random random = new Random(seed);
+                        for (int i = 0; i < 20000; i++) {
+                            final long millis = Math.abs(random.nextLong() % 4102444800000L);
+                            final String expected = reference(millis, "yyyy-MM-dd'T'HH:mm:ss");
+                            final String actual = Iso8601.format(millis);
+                            if (!expected.equals(actual)) {
+                                return millis + ": expected " + expected + " but was " + actual;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<String> failure : failures) {
+                assertNull(failure.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JsonWriterTest extends TestCase {
+
+    private static void assertSameAsOrgJson(Map<String, Object> map) {
+        assertEquals(new JSONObject(map).toString(), JsonWriter.toJson(map));
+    }
+
+    public void testScalars() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("string", "plain");
+        map.put("escapes", "quote\" slash/ back\\ tab\t nl\n cr\r ff\f bs\b ctl\u0001\u001f unié☃");
+        map.put("int", 42);
+        map.put("long", 1234567890123L);
+        map.put("negative", -7);
+        map.put("integral double", 3.0d);
+        map.put("double", 1.5d);
+        map.put("float", 0.25f);
+        map.put("negative zero", -0d);
+        map.put("true", true);
+        map.put("false", false);
+        map.put("null", null);
+        map.put("json null", JSONObject.NULL);
+        map.put("char", 'c');
+        map.put("key with \"quotes\"", "v");
+        assertSameAsOrgJson(map);
+    }
+
+    public void testNesting() throws JSONException {
+        final JSONObject nested = new JSONObject();
+        nested.put("a", 1);
+        nested.put("b", new JSONArray(Arrays.asList("x", "y/z")));
+        nested.put("c", new JSONObject());
+        nested.put("d", JSONObject.NULL);
+
+        final Map<String, Object> inner = new HashMap<>();
+        inner.put("k", "v");
+
+        final Map<String, Object> map = new HashMap<>();
+        map.put("json", nested);
+        map.put("list", Arrays.asList(1, "two", Arrays.asList(3)));
+        map.put("array", new String[]{"p", "q"});
+        map.put("ints", new int[]{1, 2});
+        map.put("map", inner);
+        map.put("empty array", new JSONArray());
+        assertSameAsOrgJson(map);
+    }
+
+    private static Throwable chain(int frames, int causes) {
+        Throwable t = null;
+        for (int c = 0; c < causes; c++) {
+            final Throwable next = c % 2 == 0
+                ? new IllegalStateException("cause " + c, t)
+                : new RuntimeException(null, t);
+            final StackTraceElement[] trace = new StackTraceElement[frames];
+            for (int i = 0; i < frames; i++) {
+                trace[i] = new StackTraceElement(
+                    i % 3 == 0 ? "android.os.Handler" : "com.example.app.Widget" + i,
+                    "method" + i,
+                    i % 5 == 0 ? null : "Widget.java",
+                    i % 7 == 0 ? -2 : i);
+            }
+            next.setStackTrace(trace);
+            t = next;
+        }
+        return t;
+    }
+
+    // The streamed exception interface must match the org.json tree it replaces.
+    public void testExceptionMatchesOrgJson() throws JSONException {
+        final Throwable t = chain(50, 3);
+        final Sentry.SentryEventBuilder builder = new Sentry.SentryEventBuilder()
+            .setMessage("message")
+            .setException(t)
+            .setStackTrace(t.getStackTrace())
+            .addTag("tag", "value")
+            .addExtra("extra", "value");
+
+        final List<JSONObject> values = new ArrayList<>();
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            final JSONObject exception = new JSONObject();
+            exception.put("type", cause.getClass().getSimpleName());
+            exception.put("value", cause.getMessage());
+            exception.put("module", cause.getClass().getPackage().getName());
+            exception.put("stacktrace", OrgJsonFrames.stackTrace(cause.getStackTrace()));
+            values.add(exception);
+        }
+        final JSONObject exceptionReport = new JSONObject();
+        exceptionReport.put("values", new JSONArray(values));
+
+        final Map<String, Object> legacy = new HashMap<>(builder.event);
+        legacy.put("exception", exceptionReport);
+        legacy.put("stacktrace", OrgJsonFrames.stackTrace(t.getStackTrace()));
+
+        assertEquals(new JSONObject(legacy).toString(), JsonWriter.toJson(builder.event));
+        assertEquals(new JSONObject(legacy).toString(), builder.toJSON().toString());
+    }
+}
@@ -0,0 +1,73 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsTest extends TestCase {
+
+    public void testHistogramBuckets() {
+        final Metrics.Histogram histogram = new Metrics.Histogram(new long[]{10, 100});
+        histogram.record(0);
+        histogram.record(10);
+        histogram.record(11);
+        histogram.record(500);
+
+        assertTrue(Arrays.equals(new long[]{2, 1, 1}, histogram.counts()));
+        assertEquals(521, histogram.sum());
+        assertEquals(500, histogram.max());
+    }
+
+    public void testLatencyPercentiles() {
+        final Metrics.Histogram histogram = new Metrics.Histogram(new long[]{10, 100, 1000});
+        for (int i = 0; i < 98; i++) {
+            histogram.record(5);
+        }
+        histogram.record(50);
+        histogram.record(400);
+
+        final Sentry.Latency latency = new Sentry.Latency(histogram);
+
+        assertEquals(100, latency.getCount());
+        assertEquals(10, latency.getPercentile(50));
+        assertEquals(100, latency.getPercentile(99));
+        // Capped at the largest value seen rather than the bucket's bound.
+        assertEquals(400, latency.getPercentile(100));
+        assertEquals(400, latency.getMax());
+        assertEquals(9.4, latency.getMean(), 0.001);
+    }
+
+    public void testEmptyLatency() {
+        final Sentry.Latency latency = new Sentry.Latency(new Metrics.Histogram(Metrics.DELIVERY_BOUNDS));
+
+        assertEquals(0, latency.getCount());
+        assertEquals(0, latency.getPercentile(99));
+        assertEquals(0.0, latency.getMean());
+        assertEquals(Metrics.DELIVERY_BOUNDS.length + 1, latency.getBucketCounts().length);
+    }
+
+    public void testConcurrentRecording() throws Exception {
+        final Metrics.Histogram histogram = new Metrics.Histogram(Metrics.SERIALIZATION_BOUNDS);
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(i % 1000 + offset);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(threads * perThread, new Sentry.Latency(histogram).getCount());
+        assertEquals(999 + threads - 1, histogram.max());
+    }
+}
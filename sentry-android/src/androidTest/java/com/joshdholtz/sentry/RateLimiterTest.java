@@ -0,0 +1,150 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class RateLimiterTest extends TestCase {
+
+    private static final long NOW = 1000000;
+
+    private final RateLimiter limiter = new RateLimiter(new Random(42));
+
+    private static Transport.Response response(int status, String retryAfter, String rateLimits) {
+        return new Transport.Response(status, retryAfter, rateLimits);
+    }
+
+    public void testNotLimitedByDefault() {
+        assertFalse(limiter.isLimited("error", NOW));
+        assertEquals(0, limiter.retryAt("error"));
+    }
+
+    public void testRetryAfterSeconds() {
+        limiter.onResponse(response(429, "30", null), NOW);
+
+        assertTrue(limiter.isLimited("error", NOW + 29999));
+        assertFalse(limiter.isLimited("error", NOW + 30000));
+        // A plain Retry-After applies to every category.
+        assertTrue(limiter.isLimited("transaction", NOW + 29999));
+    }
+
+    public void testRetryAfterHttpDate() {
+        final long millis = RateLimiter.retryAfterMillis("Wed, 21 Oct 2099 07:28:00 GMT");
+        assertTrue(millis > 0);
+
+        assertEquals(0, RateLimiter.retryAfterMillis("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    public void test429WithoutRetryAfterUsesDefault() {
+        limiter.onResponse(response(429, null, null), NOW);
+
+        assertTrue(limiter.isLimited("error", NOW + RateLimiter.DEFAULT_RETRY_AFTER_MILLIS - 1));
+        assertFalse(limiter.isLimited("error", NOW + RateLimiter.DEFAULT_RETRY_AFTER_MILLIS));
+    }
+
+    public void test429WithUnusableRateLimitsUsesDefault() {
+        limiter.onResponse(response(429, null, ""), NOW);
+
+        assertTrue(limiter.isLimited("error", NOW + RateLimiter.DEFAULT_RETRY_AFTER_MILLIS - 1));
+        assertFalse(limiter.isLimited("error", NOW + RateLimiter.DEFAULT_RETRY_AFTER_MILLIS));
+
+        final RateLimiter malformed = new RateLimiter(new Random(42));
+        malformed.onResponse(response(429, null, "soon:error"), NOW);
+
+        assertTrue(malformed.isLimited("transaction", NOW + RateLimiter.DEFAULT_RETRY_AFTER_MILLIS - 1));
+    }
+
+    public void testRateLimitsPerCategory() {
+        limiter.onResponse(response(429, "5", "60:transaction:key, 2700:default;security:organization"), NOW);
+
+        // X-Sentry-Rate-Limits takes precedence over Retry-After.
+        assertFalse(limiter.isLimited("error", NOW));
+        assertTrue(limiter.isLimited("transaction", NOW + 59999));
+        assertFalse(limiter.isLimited("transaction", NOW + 60000));
+        assertTrue(limiter.isLimited("default", NOW + 2699999));
+        assertTrue(limiter.isLimited("security", NOW + 2699999));
+    }
+
+    public void testRateLimitsWithoutCategoriesApplyToAll() {
+        limiter.onResponse(response(200, null, "10::organization"), NOW);
+
+        assertTrue(limiter.isLimited("error", NOW + 9999));
+        assertFalse(limiter.isLimited("error", NOW + 10000));
+    }
+
+    public void testMalformedRateLimitsAreIgnored() {
+        limiter.onResponse(response(200, null, "soon:error, :, 5"), NOW);
+
+        assertFalse(limiter.isLimited("error", NOW));
+    }
+
+    public void testLongerLimitWins() {
+        limiter.onResponse(response(429, null, "100:error"), NOW);
+        limiter.onResponse(response(429, null, "10:error"), NOW);
+
+        assertTrue(limiter.isLimited("error", NOW + 99999));
+    }
+
+    public void testBackoffGrowsWithJitterAndIsCapped() {
+        long previous = 0;
+        for (int i = 0; i < 30; i++) {
+            final long now = NOW + i * 10000000L;
+            limiter.onFailure(now);
+
+            final long nominal = Math.min(RateLimiter.MAX_BACKOFF_MILLIS, RateLimiter.INITIAL_BACKOFF_MILLIS << i);
+            final long delay = limiter.retryAt("error") - now;
+            assertTrue("delay " + delay + " for attempt " + i, delay >= nominal / 2 && delay <= nominal);
+            assertTrue(delay >= previous / 2);
+            previous = delay;
+        }
+    }
+
+    public void testSuccessResetsBackoff() {
+        limiter.onFailure(NOW);
+        limiter.onFailure(NOW);
+        limiter.onFailure(NOW);
+        limiter.onResponse(response(200, null, null), NOW + 100000);
+
+        limiter.onFailure(NOW + 200000);
+        assertTrue(limiter.retryAt("error") - (NOW + 200000) <= RateLimiter.INITIAL_BACKOFF_MILLIS);
+    }
+
+    public void testServerErrorsBackOff() {
+        limiter.onResponse(response(503, null, null), NOW);
+
+        assertTrue(limiter.isLimited("error", NOW));
+        assertFalse(limiter.isLimited("error", NOW + RateLimiter.INITIAL_BACKOFF_MILLIS));
+    }
+
+    public void testServerErrorsWithUnusableRateLimitsBackOff() {
+        limiter.onResponse(response(503, null, ":"), NOW);
+
+        assertTrue(limiter.isLimited("error", NOW));
+        assertFalse(limiter.isLimited("error", NOW + RateLimiter.INITIAL_BACKOFF_MILLIS));
+    }
+
+    public void testHonorsResponsesFromServer() throws Exception {
+        final StubHttpServer server = new StubHttpServer();
+        try {
+            final HttpTransport transport = new HttpTransport(server.url("/api/42/store/"), "auth", true);
+            server.enqueue(new StubHttpServer.Response(429).header("Retry-After", "120"));
+            server.enqueue(new StubHttpServer.Response(503).header("Retry-After", "7"));
+            server.enqueue(new StubHttpServer.Response(429).header("X-Sentry-Rate-Limits", "30:error:key"));
+
+            limiter.onResponse(transport.send("{}"), NOW);
+            assertTrue(limiter.isLimited("error", NOW + 119999));
+            assertFalse(limiter.isLimited("error", NOW + 120000));
+
+            final RateLimiter unavailable = new RateLimiter(new Random(1));
+            unavailable.onResponse(transport.send("{}"), NOW);
+            assertEquals(NOW + 7000, unavailable.retryAt("error"));
+
+            final RateLimiter perCategory = new RateLimiter(new Random(1));
+            perCategory.onResponse(transport.send("{}"), NOW);
+            assertTrue(perCategory.isLimited("error", NOW + 29999));
+            assertFalse(perCategory.isLimited("transaction", NOW));
+        } finally {
+            server.shutdown();
+        }
+    }
+}
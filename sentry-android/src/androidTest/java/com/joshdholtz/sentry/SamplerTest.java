@@ -0,0 +1,97 @@
+package com.joshdholtz.sentry;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+public class SamplerTest extends TestCase {
+
+    private static Map<String, Object> event(Sentry.SentryEventLevel level) {
+        return new Sentry.SentryEventBuilder().setLevel(level).event;
+    }
+
+    private static int kept(Sampler sampler, Map<String, Object> event, int events) {
+        int kept = 0;
+        for (int i = 0; i < events; i++) {
+            if (sampler.sample(event, i * 0x9e3779b97f4a7c15L)) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    public void testDefaultSendsEverything() {
+        assertFalse(Sampler.DEFAULT.isActive());
+        assertEquals(1000, kept(Sampler.DEFAULT, event(Sentry.SentryEventLevel.DEBUG), 1000));
+    }
+
+    public void testLevelRates() {
+        final Sampler sampler = Sampler.DEFAULT
+            .withLevelRate(Sentry.SentryEventLevel.INFO, 0.01)
+            .withLevelRate(Sentry.SentryEventLevel.DEBUG, 0)
+            .withLevelRate(Sentry.SentryEventLevel.FATAL, 1);
+
+        assertTrue(sampler.isActive());
+        final int info = kept(sampler, event(Sentry.SentryEventLevel.INFO), 100000);
+        assertTrue("kept " + info, info > 800 && info < 1200);
+        assertEquals(0, kept(sampler, event(Sentry.SentryEventLevel.DEBUG), 1000));
+        assertEquals(1000, kept(sampler, event(Sentry.SentryEventLevel.FATAL), 1000));
+        // Levels without a rate use the default.
+        assertEquals(1000, kept(sampler, event(Sentry.SentryEventLevel.ERROR), 1000));
+    }
+
+    public void testDefaultRate() {
+        final Sampler sampler = Sampler.DEFAULT.withDefaultRate(0.5);
+
+        final int kept = kept(sampler, event(Sentry.SentryEventLevel.ERROR), 10000);
+        assertTrue("kept " + kept, kept > 4500 && kept < 5500);
+    }
+
+    public void testMostSpecificRateWins() {
+        final Sampler sampler = Sampler.DEFAULT
+            .withLevelRate(Sentry.SentryEventLevel.INFO, 0)
+            .withLoggerRate("payments", 1)
+            .withTagRate("screen", "checkout", 0.25);
+
+        final Sentry.SentryEventBuilder builder = new Sentry.SentryEventBuilder()
+            .setLevel(Sentry.SentryEventLevel.INFO);
+        assertEquals(0.0, sampler.rateFor(builder.event));
+
+        builder.setLogger("payments");
+        assertEquals(1.0, sampler.rateFor(builder.event));
+
+        builder.addTag("screen", "checkout");
+        assertEquals(0.25, sampler.rateFor(builder.event));
+
+        builder.addTag("screen", "home");
+        assertEquals(1.0, sampler.rateFor(builder.event));
+    }
+
+    public void testLowestMatchingTagRateWins() {
+        final Sampler sampler = Sampler.DEFAULT
+            .withTagRate("a", "1", 0.5)
+            .withTagRate("b", "2", 0.1);
+
+        final Sentry.SentryEventBuilder builder = new Sentry.SentryEventBuilder()
+            .addTag("a", "1")
+            .addTag("b", "2");
+        assertEquals(0.1, sampler.rateFor(builder.event));
+    }
+
+    public void testDecisionIsDeterministicPerFingerprint() {
+        final Sampler sampler = Sampler.DEFAULT.withDefaultRate(0.5);
+        final Map<String, Object> event = event(Sentry.SentryEventLevel.ERROR);
+
+        for (long fingerprint = 0; fingerprint < 100; fingerprint++) {
+            final boolean first = sampler.sample(event, fingerprint);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(first, sampler.sample(event, fingerprint));
+            }
+        }
+    }
+
+    public void testRatesAreClamped() {
+        assertEquals(1.0, Sampler.DEFAULT.withDefaultRate(7).rateFor(event(Sentry.SentryEventLevel.ERROR)));
+        assertEquals(0.0, Sampler.DEFAULT.withDefaultRate(-1).rateFor(event(Sentry.SentryEventLevel.ERROR)));
+    }
+}
@@ -67,7 +67,7 @@ public class SentryEventBuilderTest extends TestCase {
     public void testStackTraces() throws JSONException {
         final StackTraceElement internal = new StackTraceElement("com.google.android.gms.Common.Foo", "bar", "Foo.java", 19);
         {
-            JSONObject json = Sentry.SentryEventBuilder.frameJson(internal);
+            JSONObject json = new JSONObject(new FrameCache(FrameClassifier.DEFAULT).frame(internal));
             assertEquals(false, json.getBoolean("in_app"));
             assertEquals(19, json.getInt("lineno"));
             assertEquals("com.google.android.gms.Common.Foo", json.getString("module"));
@@ -77,7 +77,7 @@ public class SentryEventBuilderTest extends TestCase {
 
         final StackTraceElement user = new StackTraceElement("github.sentry.Common.Foo", "qux", "Foo.scala", 22);
         {
-            JSONObject json = Sentry.SentryEventBuilder.frameJson(user);
+            JSONObject json = new JSONObject(new FrameCache(FrameClassifier.DEFAULT).frame(user));
             assertEquals(true, json.getBoolean("in_app"));
             assertEquals(22, json.getInt("lineno"));
             assertEquals("github.sentry.Common.Foo", json.getString("module"));
@@ -93,13 +93,8 @@ public class SentryEventBuilderTest extends TestCase {
         assertEquals("^(com\\.example\\.www|com\\.example)\\..*", toPackageRegex("com.example.www", "com.example"));
 
         // Now test the actual list of packages that we want to ensure we keep correct.
-        final String[] internalPackages = {
-                "java",
-                "android",
-                "com.android",
-                "com.google.android",
-                "dalvik.system"};
-        assertEquals(Sentry.SentryEventBuilder.isInternalPackage, toPackageRegex(internalPackages));
+        final String[] internalPackages = FrameClassifier.DEFAULT_EXCLUDES.toArray(new String[0]);
+        assertEquals(FrameClassifierTest.INTERNAL_PACKAGE_REGEX, toPackageRegex(internalPackages));
 
 
         final String[] internalClasses = {
@@ -110,7 +105,7 @@ public class SentryEventBuilderTest extends TestCase {
                 "dalvik.system.console"
         };
         for (String c : internalClasses) {
-            assertTrue(c, c.matches(Sentry.SentryEventBuilder.isInternalPackage));
+            assertTrue(c, c.matches(FrameClassifierTest.INTERNAL_PACKAGE_REGEX));
         }
 
         final String[] userClasses= {
@@ -119,7 +114,7 @@ public class SentryEventBuilderTest extends TestCase {
         };
 
         for (String c : userClasses) {
-            assertFalse(c, c.matches(Sentry.SentryEventBuilder.isInternalPackage));
+            assertFalse(c, c.matches(FrameClassifierTest.INTERNAL_PACKAGE_REGEX));
         }
     }
 
@@ -142,4 +137,38 @@ public class SentryEventBuilderTest extends TestCase {
         Sentry.addDefaultRelease(b, new Sentry.AppInfo("name", "versionName", 31));
         assertEquals("custom-version", b.event.get("release"));
     }
+
+    public void testCulpritIsFirstFrameInPackage() {
+        final StackTraceElement app = new StackTraceElement("com.example.app.Widget", "onClick", "Widget.java", 42);
+        final StackTraceElement[] frames = {
+            new StackTraceElement("java.util.ArrayList", "get", "ArrayList.java", 411),
+            app,
+            new StackTraceElement("com.example.app.Main", "run", "Main.java", 7),
+        };
+
+        assertEquals(app.toString(), Sentry.getCause(frames, "com.example.app", "broken"));
+    }
+
+    // Other in-app frames, such as a library's, don't count: without a frame in the package the
+    // culprit is the message, as it always was.
+    public void testCulpritFallsBackToMessage() {
+        final StackTraceElement[] frames = {
+            new StackTraceElement("java.util.ArrayList", "get", "ArrayList.java", 411),
+            new StackTraceElement("com.example.lib.Parser", "parse", "Parser.java", 12),
+        };
+
+        assertEquals("broken", Sentry.getCause(frames, "com.example.app", "broken"));
+    }
+
+    // The culprit is looked for in the whole trace, not just the frames kept for the event.
+    public void testCulpritIsFoundInTrimmedFrames() {
+        final StackTraceElement[] frames = new StackTraceElement[ExceptionLimits.DEFAULT_MAX_FRAMES * 2];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new StackTraceElement("java.util.Frame" + i, "call", "Frame.java", i);
+        }
+        final StackTraceElement app = new StackTraceElement("com.example.app.Widget", "onClick", "Widget.java", 42);
+        frames[frames.length / 2] = app;
+
+        assertEquals(app.toString(), Sentry.getCause(frames, "com.example.app", "broken"));
+    }
 }
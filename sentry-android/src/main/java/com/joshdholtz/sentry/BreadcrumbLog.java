@@ -0,0 +1,179 @@
+package com.joshdholtz.sentry;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A copy of the breadcrumb trail in a fixed-size, memory-mapped ring file, so that it survives
+ * the process being killed without warning (a native crash, the OOM killer, an ANR).
+ * <p>
+ * Each breadcrumb is written as JSON into the slot for its sequence number, which is a copy
+ * into memory rather than a file write; the kernel writes the pages back on its own, even after
+ * the process is gone. The header records what the app was doing (in the foreground, in the
+ * background, or crashing with the crash already reported), so that the next launch can tell
+ * whether the last session ended abnormally.
+ * <p>
+ * Layout: magic (4) | state (4) | then {@link #SLOTS} slots of {@link #SLOT_SIZE} bytes, each
+ * sequence + 1 (8) | length (2) | CRC32 of the JSON (4) | UTF-8 JSON. A zero sequence marks an
+ * empty slot. The sequence is written last, so a slot torn mid-write is skipped on recovery.
+ */
+final class BreadcrumbLog {
+
+    private static final String TAG = "Sentry";
+
+    // Nothing is known about the session, e.g. app lifecycle callbacks aren't available.
+    static final int STATE_UNKNOWN = 0;
+    static final int STATE_FOREGROUND = 1;
+    static final int STATE_BACKGROUND = 2;
+    // A crash was saved by the uncaught exception handler, with its own breadcrumbs.
+    static final int STATE_CRASHED = 3;
+
+    static final int SLOTS = Sentry.Breadcrumbs.MAX_BREADCRUMBS;
+    static final int SLOT_SIZE = 512;
+
+    private static final int MAGIC = 0x53425243; // "SBRC"
+    private static final int HEADER_LENGTH = 8;
+    private static final int SLOT_HEADER_LENGTH = 14;
+    private static final int MAX_JSON_LENGTH = SLOT_SIZE - SLOT_HEADER_LENGTH;
+    static final int FILE_SIZE = HEADER_LENGTH + SLOTS * SLOT_SIZE;
+
+    private final MappedByteBuffer buffer;
+
+    private BreadcrumbLog(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the log, or null if the file couldn't be created or mapped.
+     */
+    static BreadcrumbLog open(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() != FILE_SIZE) {
+                raf.setLength(0);
+                raf.setLength(FILE_SIZE);
+            }
+            final BreadcrumbLog log = new BreadcrumbLog(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE));
+            if (log.buffer.getInt(0) != MAGIC) {
+                log.reset();
+                log.buffer.putInt(0, MAGIC);
+            }
+            return log;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not open the breadcrumb log", e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    int state() {
+        return buffer.getInt(4);
+    }
+
+    void setState(int state) {
+        buffer.putInt(4, state);
+    }
+
+    /**
+     * Store a breadcrumb, overwriting the one {@link #SLOTS} places before it. Crumbs whose JSON
+     * doesn't fit in a slot are left out.
+     */
+    void append(long sequence, String json) {
+        final byte[] bytes;
+        try {
+            bytes = json.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return;
+        }
+        if (bytes.length > MAX_JSON_LENGTH) {
+            return;
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        final int offset = HEADER_LENGTH + (int) (sequence % SLOTS) * SLOT_SIZE;
+        // A private view, so that concurrent writers to other slots don't share a position.
+        final ByteBuffer slot = buffer.duplicate();
+        slot.putLong(offset, 0);
+        slot.putShort(offset + 8, (short) bytes.length);
+        slot.putInt(offset + 10, (int) crc.getValue());
+        slot.position(offset + SLOT_HEADER_LENGTH);
+        slot.put(bytes);
+        slot.putLong(offset, sequence + 1);
+    }
+
+    /**
+     * @return the JSON of the stored breadcrumbs, oldest first, skipping torn slots.
+     */
+    List<String> recover() {
+        final List<long[]> found = new ArrayList<>();
+        final List<String> crumbs = new ArrayList<>();
+        for (int i = 0; i < SLOTS; i++) {
+            final int offset = HEADER_LENGTH + i * SLOT_SIZE;
+            final long sequence = buffer.getLong(offset);
+            final int length = buffer.getShort(offset + 8) & 0xffff;
+            if (sequence == 0 || length > MAX_JSON_LENGTH) {
+                continue;
+            }
+
+            final byte[] bytes = new byte[length];
+            final ByteBuffer slot = buffer.duplicate();
+            slot.position(offset + SLOT_HEADER_LENGTH);
+            slot.get(bytes);
+
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(offset + 10)) {
+                continue;
+            }
+            try {
+                final String json = new String(bytes, "UTF-8");
+                found.add(new long[]{sequence, crumbs.size()});
+                crumbs.add(json);
+            } catch (UnsupportedEncodingException ignored) {
+            }
+        }
+
+        Collections.sort(found, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+        final List<String> ordered = new ArrayList<>(found.size());
+        for (long[] entry : found) {
+            ordered.add(crumbs.get((int) entry[1]));
+        }
+        return ordered;
+    }
+
+    /**
+     * Forget every stored breadcrumb, for a new session.
+     */
+    void reset() {
+        for (int i = 0; i < SLOTS; i++) {
+            buffer.putLong(HEADER_LENGTH + i * SLOT_SIZE, 0);
+        }
+        setState(STATE_UNKNOWN);
+    }
+}
@@ -0,0 +1,114 @@
+package com.joshdholtz.sentry;
+
+import android.Manifest.permission;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Keeps track of whether the device is online, so that sending an event doesn't have to ask
+ * the system (two binder calls) every time.
+ * <p>
+ * The ACCESS_NETWORK_STATE permission is checked once. After that, the cached state is updated
+ * from connectivity broadcasts, and when the device comes back online a callback is run, once
+ * the network has been up for a short while, to send whatever was cached while offline.
+ */
+final class ConnectivityMonitor {
+
+    private static final String TAG = "Sentry";
+
+    static final long DEFAULT_DEBOUNCE_MILLIS = 2000;
+
+    private final Context context;
+    private final Handler handler;
+    private final Runnable onReconnect;
+    private final long debounceMillis;
+    private final boolean hasPermission;
+
+    private volatile boolean connected;
+    // False if the receiver couldn't be registered, in which case every call asks the system.
+    private volatile boolean listening;
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            update();
+        }
+    };
+
+    ConnectivityMonitor(Context context, Handler handler, Runnable onReconnect, long debounceMillis) {
+        this(context, handler, onReconnect, debounceMillis, context.getPackageManager()
+            .checkPermission(permission.ACCESS_NETWORK_STATE, context.getPackageName())
+            == PackageManager.PERMISSION_GRANTED);
+    }
+
+    ConnectivityMonitor(Context context, Handler handler, Runnable onReconnect, long debounceMillis,
+                        boolean hasPermission) {
+        this.context = context;
+        this.handler = handler;
+        this.onReconnect = onReconnect;
+        this.debounceMillis = debounceMillis;
+        this.hasPermission = hasPermission;
+    }
+
+    void start() {
+        if (!hasPermission) {
+            return;
+        }
+        connected = queryConnected();
+        try {
+            // Delivered on the main thread; also sent once straight away with the current state.
+            context.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+            listening = true;
+        } catch (Exception e) {
+            Log.w(TAG, "Could not listen for connectivity changes", e);
+        }
+    }
+
+    /**
+     * @return true if events can be sent now. Always false without the ACCESS_NETWORK_STATE
+     * permission: both a fresh capture and the replay of cached events check this first, so
+     * without it events are kept in the offline cache and never posted, as before this class.
+     */
+    boolean isConnected() {
+        if (!hasPermission) {
+            return false;
+        }
+        return listening ? connected : queryConnected();
+    }
+
+    void update() {
+        update(queryConnected());
+    }
+
+    void update(boolean nowConnected) {
+        final boolean wasConnected = connected;
+        connected = nowConnected;
+
+        if (!nowConnected) {
+            // Networks often flap while connecting: only send once the network has stayed up.
+            handler.removeCallbacks(onReconnect);
+        } else if (!wasConnected) {
+            // A repeated "connected" broadcast, as on a wifi handover, leaves the pending send be.
+            handler.postDelayed(onReconnect, debounceMillis);
+        }
+    }
+
+    private boolean queryConnected() {
+        try {
+            final ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            final NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
+            return activeNetworkInfo != null && activeNetworkInfo.isConnected();
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read the network state", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.joshdholtz.sentry;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A preallocated, memory-mapped file that holds the reports saved while the app crashed.
+ * <p>
+ * The file is created and mapped ahead of time, so saving a crash is a copy into memory that
+ * the kernel writes back even if the process dies straight afterwards: no file is opened,
+ * grown or rewritten while the app is going down. The header is written last, so reports torn
+ * by the process being killed halfway are never read back. On the next launch the reports are
+ * moved into the regular event storage.
+ * <p>
+ * Layout: magic (4) | payload length (4) | CRC32 of payload (4) | payload. The payload is
+ * whatever was written, back to back; the slot itself doesn't know where one report ends.
+ */
+final class CrashSlot {
+
+    private static final String TAG = "Sentry";
+
+    static final int DEFAULT_SIZE = 256 * 1024;
+
+    private static final int MAGIC = 0x53434853; // "SCHS"
+    private static final int HEADER_LENGTH = 12;
+
+    private final MappedByteBuffer buffer;
+
+    private CrashSlot(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the slot, or null if the file couldn't be created or mapped.
+     */
+    static CrashSlot open(File file, int size) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() != size) {
+                raf.setLength(size);
+            }
+            // The mapping stays valid after the file is closed.
+            return new CrashSlot(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not prepare the crash slot", e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return how many more bytes the slot can take.
+     */
+    synchronized int room() {
+        final byte[] saved = read();
+        return buffer.capacity() - HEADER_LENGTH - (saved != null ? saved.length : 0);
+    }
+
+    /**
+     * Save a crash report, after any the slot already holds. The slot is cleared while the header
+     * is rewritten, so an earlier report is lost too if the process dies within those few writes.
+     *
+     * @return false if the payload doesn't fit.
+     */
+    synchronized boolean write(byte[] payload) {
+        final byte[] saved = read();
+        final int length = saved != null ? saved.length : 0;
+        if (payload.length > buffer.capacity() - HEADER_LENGTH - length) {
+            return false;
+        }
+
+        final CRC32 crc = new CRC32();
+        if (saved != null) {
+            crc.update(saved, 0, length);
+        }
+        crc.update(payload, 0, payload.length);
+
+        buffer.putInt(0, 0);
+        buffer.position(HEADER_LENGTH + length);
+        buffer.put(payload);
+        buffer.putInt(4, length + payload.length);
+        buffer.putInt(8, (int) crc.getValue());
+        buffer.putInt(0, MAGIC);
+        return true;
+    }
+
+    /**
+     * @return the saved crash reports, or null if there are none or they were torn.
+     */
+    synchronized byte[] read() {
+        if (buffer.getInt(0) != MAGIC) {
+            return null;
+        }
+        final int length = buffer.getInt(4);
+        if (length < 0 || length > buffer.capacity() - HEADER_LENGTH) {
+            return null;
+        }
+
+        final byte[] payload = new byte[length];
+        buffer.position(HEADER_LENGTH);
+        buffer.get(payload);
+
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue() == buffer.getInt(8) ? payload : null;
+    }
+
+    /**
+     * Empty the slot, once its reports are stored elsewhere.
+     */
+    synchronized void clear() {
+        if (buffer.getInt(0) != 0) {
+            buffer.putInt(0, 0);
+            buffer.force();
+        }
+    }
+}
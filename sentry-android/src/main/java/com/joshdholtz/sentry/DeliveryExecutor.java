@@ -0,0 +1,158 @@
+package com.joshdholtz.sentry;
+
+import android.os.Build;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * A bounded thread pool for sending events that decides what happens to an event when its queue
+ * is full, rather than silently discarding it.
+ *
+ * @see Sentry.OverflowPolicy
+ */
+final class DeliveryExecutor extends ThreadPoolExecutor {
+
+    /**
+     * Writes a rejected task's event somewhere durable.
+     */
+    interface Spiller {
+
+        /**
+         * @return false if the task doesn't carry an event that can be stored.
+         */
+        boolean spill(Runnable task);
+    }
+
+    private final int queueSize;
+
+    // Signalled whenever a worker takes a task off the queue, for awaitRoom.
+    private final Object room = new Object();
+    // Written under the room lock; read without it so that workers skip the lock when nobody waits.
+    private volatile int waiting;
+
+    DeliveryExecutor(int workers, int queueSize, Sentry.OverflowPolicy policy, long blockTimeoutMillis,
+                     ThreadFactory threadFactory, Spiller spiller, AtomicLong dropped, AtomicLong spilled) {
+        super(Math.max(1, workers), Math.max(1, workers),
+            60, SECONDS, // Kill unused threads after this length.
+            new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+            threadFactory,
+            new Overflow(policy, blockTimeoutMillis, spiller, dropped, spilled));
+        this.queueSize = Math.max(1, queueSize);
+
+        // Don't keep idle threads around in the host app. Not available before Gingerbread, where
+        // the workers stay alive instead.
+        if (Build.VERSION.SDK_INT >= 9) {
+            allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Wait until at least half of the queue is free, so that a backlog can be fed in without
+     * overflowing it and still leave room for new events.
+     *
+     * @return the number of free queue slots, or 0 if the queue didn't drain in time or the
+     * executor was shut down.
+     */
+    int awaitRoom(long timeoutMillis) throws InterruptedException {
+        final int wanted = (queueSize + 1) / 2;
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (room) {
+            waiting++;
+            try {
+                while (!isShutdown()) {
+                    final int free = getQueue().remainingCapacity();
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (free >= wanted) {
+                        return free;
+                    }
+                    if (remaining <= 0) {
+                        return 0;
+                    }
+                    room.wait(remaining);
+                }
+                return 0;
+            } finally {
+                waiting--;
+            }
+        }
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        if (waiting > 0) {
+            synchronized (room) {
+                room.notifyAll();
+            }
+        }
+    }
+
+    private static final class Overflow implements RejectedExecutionHandler {
+        private final Sentry.OverflowPolicy policy;
+        private final long blockTimeoutMillis;
+        private final Spiller spiller;
+        private final AtomicLong dropped;
+        private final AtomicLong spilled;
+
+        Overflow(Sentry.OverflowPolicy policy, long blockTimeoutMillis, Spiller spiller,
+                 AtomicLong dropped, AtomicLong spilled) {
+            this.policy = policy;
+            this.blockTimeoutMillis = blockTimeoutMillis;
+            this.spiller = spiller;
+            this.dropped = dropped;
+            this.spilled = spilled;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                spill(task);
+                return;
+            }
+
+            switch (policy) {
+                case DROP_NEWEST:
+                    dropped.incrementAndGet();
+                    break;
+
+                case DROP_OLDEST:
+                    if (executor.getQueue().poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                    executor.execute(task);
+                    break;
+
+                case BLOCK:
+                    try {
+                        if (executor.getQueue().offer(task, blockTimeoutMillis, MILLISECONDS)) {
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    // Timed out, keep the event rather than losing it.
+                    spill(task);
+                    break;
+
+                case SPILL_TO_DISK:
+                default:
+                    spill(task);
+                    break;
+            }
+        }
+
+        private void spill(Runnable task) {
+            if (spiller.spill(task)) {
+                spilled.incrementAndGet();
+            } else {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.joshdholtz.sentry;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.WindowManager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * The os, device and package contexts sent with every event, read once and then frozen.
+ * <p>
+ * Reading them takes several calls into the system (the package manager, the window manager),
+ * so it is done off the thread that calls init. Apart from the orientation the contexts never
+ * change, so a snapshot keeps them encoded as JSON and each event splices that text in instead
+ * of walking the objects again. A configuration change replaces the snapshot with one that has
+ * the new orientation.
+ * <p>
+ * Instances are immutable: the JSONObjects they hold are never handed out or changed.
+ */
+final class DeviceContexts implements JsonWriter.Streamable {
+
+    private static final String TAG = "Sentry";
+
+    // Before init there is nothing to report.
+    static final DeviceContexts EMPTY = new DeviceContexts(Sentry.AppInfo.Empty, null, null, null);
+
+    final Sentry.AppInfo appInfo;
+    private final JSONObject os;
+    private final JSONObject device;
+    private final JSONObject pack;
+    private final String json;
+
+    DeviceContexts(Sentry.AppInfo appInfo, JSONObject os, JSONObject device, JSONObject pack) {
+        this.appInfo = appInfo;
+        this.os = os;
+        this.device = device;
+        this.pack = pack;
+        this.json = encode();
+    }
+
+    static DeviceContexts read(Context context) {
+        final Sentry.AppInfo appInfo = Sentry.AppInfo.Read(context);
+        return new DeviceContexts(appInfo, osContext(), deviceContext(context), packageContext(appInfo));
+    }
+
+    /**
+     * @return a snapshot with the device orientation set from a {@link Configuration} value, or
+     * this one if the orientation hasn't changed.
+     */
+    DeviceContexts withOrientation(int orientation) {
+        final String name = orientationName(orientation);
+        if (device == null || name.equals(device.optString("orientation"))) {
+            return this;
+        }
+
+        final JSONObject updated = new JSONObject();
+        try {
+            // Raw in the Android API.
+            final Iterator<?> keys = device.keys();
+            while (keys.hasNext()) {
+                final String key = (String) keys.next();
+                updated.put(key, device.get(key));
+            }
+            // Replacing a key keeps its place, so the JSON is laid out as before.
+            updated.put("orientation", name);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error updating device context", e);
+            return this;
+        }
+        return new DeviceContexts(appInfo, os, updated, pack);
+    }
+
+    @Override
+    public void writeJson(JsonWriter writer) {
+        writer.raw(json);
+    }
+
+    private String encode() {
+        final StringBuilder out = new StringBuilder(512);
+        final JsonWriter writer = new JsonWriter(out).beginObject();
+        if (os != null) {
+            writer.name("os").value(os);
+        }
+        if (device != null) {
+            writer.name("device").value(device);
+        }
+        if (pack != null) {
+            writer.name("package").value(pack);
+        }
+        writer.endObject();
+        return out.toString();
+    }
+
+    private static String orientationName(int orientation) {
+        return orientation == Configuration.ORIENTATION_LANDSCAPE ? "landscape" : "portrait";
+    }
+
+    /**
+     * Read the device and build into a map.
+     * <p>
+     * Not implemented:
+     * -  battery_level
+     * If the device has a battery this can be an integer defining the battery level (in
+     * the range 0-100). (Android requires registration of an intent to query the battery).
+     * - name
+     * The name of the device. This is typically a hostname.
+     * <p>
+     * See https://docs.getsentry.com/hosted/clientdev/interfaces/#context-types
+     */
+    private static JSONObject deviceContext(Context context) {
+        final JSONObject device = new JSONObject();
+        try {
+            // The family of the device. This is normally the common part of model names across
+            // generations. For instance iPhone would be a reasonable family, so would be Samsung Galaxy.
+            device.put("family", Build.BRAND);
+
+            // The model name. This for instance can be Samsung Galaxy S3.
+            device.put("model", Build.PRODUCT);
+
+            // An internal hardware revision to identify the device exactly.
+            device.put("model_id", Build.MODEL);
+
+            final String architecture = System.getProperty("os.arch");
+            if (Sentry.Present(architecture)) {
+                device.put("arch", architecture);
+            }
+
+            device.put("orientation",
+                orientationName(context.getResources().getConfiguration().orientation));
+
+            // Read screen resolution in the format "800x600"
+            // Normalised to have wider side first.
+            final Object windowManager = context.getSystemService(Context.WINDOW_SERVICE);
+            if (windowManager != null && windowManager instanceof WindowManager) {
+                final DisplayMetrics metrics = new DisplayMetrics();
+                ((WindowManager) windowManager).getDefaultDisplay().getMetrics(metrics);
+                device.put("screen_resolution",
+                    String.format("%sx%s",
+                        Math.max(metrics.widthPixels, metrics.heightPixels),
+                        Math.min(metrics.widthPixels, metrics.heightPixels)));
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading device context", e);
+        }
+        return device;
+    }
+
+    private static JSONObject osContext() {
+        final JSONObject os = new JSONObject();
+        try {
+            os.put("type", "os");
+            os.put("name", "Android");
+            os.put("version", Build.VERSION.RELEASE);
+            os.put("build", Integer.toString(Build.VERSION.SDK_INT));
+            final String kernelVersion = System.getProperty("os.version");
+            if (Sentry.Present(kernelVersion)) {
+                os.put("kernel_version", kernelVersion);
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading OS context", e);
+        }
+        return os;
+    }
+
+    /**
+     * Read the package data into map to be sent as an event context item.
+     * This is not a built-in context type.
+     */
+    private static JSONObject packageContext(Sentry.AppInfo appInfo) {
+        final JSONObject pack = new JSONObject();
+        try {
+            pack.put("type", "package");
+            pack.put("name", appInfo.name);
+            pack.put("version_name", appInfo.versionName);
+            pack.put("version_code", Integer.toString(appInfo.versionCode));
+        } catch (JSONException e) {
+            Log.e(TAG, "Error reading package context", e);
+        }
+        return pack;
+    }
+}
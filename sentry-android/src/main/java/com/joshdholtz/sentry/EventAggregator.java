@@ -0,0 +1,191 @@
+package com.joshdholtz.sentry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collapses repeats of the same event, so that code throwing in a loop produces one event per
+ * time window rather than hundreds.
+ * <p>
+ * Events are identified by a 64-bit fingerprint of their exception types, culprit and top stack
+ * frames (or message, for events without an exception). The first event for a fingerprint is
+ * sent; repeats within the window are only counted, and the last of them is kept. Once the
+ * window has closed, {@link #closeWindows(long)} hands that event back as a summary carrying the
+ * number of repeats it stands for, so a storm that stops still reports how big it was. If
+ * another repeat comes before the summary is taken, that one is sent with the count instead.
+ * Fingerprints are kept in a bounded LRU, so a storm of distinct errors can't grow it without
+ * limit; a fingerprint pushed out with repeats pending is summarised on the next pass.
+ */
+final class EventAggregator<T> {
+
+    static final String OCCURRENCES_EXTRA = "occurrences";
+
+    static final int NOT_SENT = 0;
+
+    // Frames beyond this depth rarely tell two errors apart.
+    private static final int FINGERPRINT_FRAMES = 5;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The last repeat suppressed in a window, and how many repeats it stands for.
+     */
+    static final class Summary<T> {
+        final T event;
+        final int occurrences;
+
+        Summary(T event, int occurrences) {
+            this.event = event;
+            this.occurrences = occurrences;
+        }
+    }
+
+    private static final class Entry<T> {
+        long windowStart;
+        int suppressed;
+        T latest;
+    }
+
+    private final long windowMillis;
+    private final Map<Long, Entry<T>> recent;
+    // Summaries of fingerprints the LRU pushed out, guarded by this.
+    private final List<Summary<T>> evicted = new ArrayList<>();
+
+    EventAggregator(long windowMillis, final int maxFingerprints) {
+        this.windowMillis = windowMillis;
+        this.recent = new LinkedHashMap<Long, Entry<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry<T>> eldest) {
+                if (size() <= maxFingerprints) {
+                    return false;
+                }
+                final Entry<T> entry = eldest.getValue();
+                if (entry.suppressed > 0) {
+                    evicted.add(new Summary<>(entry.latest, entry.suppressed));
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Record an occurrence of an event.
+     *
+     * @return {@link #NOT_SENT} if the event should be dropped as a repeat, otherwise the number
+     * of occurrences the event should be sent on behalf of, including itself.
+     */
+    synchronized int record(long fingerprint, T event, long now) {
+        Entry<T> entry = recent.get(fingerprint);
+        if (entry == null) {
+            entry = new Entry<>();
+            entry.windowStart = now;
+            recent.put(fingerprint, entry);
+            return 1;
+        }
+
+        if (now - entry.windowStart < windowMillis) {
+            entry.suppressed++;
+            entry.latest = event;
+            return NOT_SENT;
+        }
+
+        final int occurrences = entry.suppressed + 1;
+        entry.windowStart = now;
+        entry.suppressed = 0;
+        entry.latest = null;
+        return occurrences;
+    }
+
+    /**
+     * @return a summary for every window that has closed by now with repeats in it.
+     */
+    synchronized List<Summary<T>> closeWindows(long now) {
+        return take(now, false);
+    }
+
+    /**
+     * @return a summary for every window with repeats in it, closed or not.
+     */
+    synchronized List<Summary<T>> drain() {
+        return take(0, true);
+    }
+
+    /**
+     * @return when the earliest window with repeats in it closes, or -1 if there is none.
+     */
+    synchronized long nextClose() {
+        if (!evicted.isEmpty()) {
+            return 0;
+        }
+        long next = -1;
+        for (Entry<T> entry : recent.values()) {
+            final long close = entry.windowStart + windowMillis;
+            if (entry.suppressed > 0 && (next < 0 || close < next)) {
+                next = close;
+            }
+        }
+        return next;
+    }
+
+    private List<Summary<T>> take(long now, boolean all) {
+        final List<Summary<T>> summaries = new ArrayList<>(evicted);
+        evicted.clear();
+        for (Entry<T> entry : recent.values()) {
+            if (entry.suppressed > 0 && (all || now - entry.windowStart >= windowMillis)) {
+                summaries.add(new Summary<>(entry.latest, entry.suppressed));
+                entry.suppressed = 0;
+                entry.latest = null;
+            }
+        }
+        return summaries;
+    }
+
+    static long fingerprint(Map<String, Object> event) {
+        long hash = FNV_OFFSET;
+        final Object exception = event.get("exception");
+        if (exception instanceof Sentry.SentryEventBuilder.ExceptionInterface) {
+            final List<Sentry.SentryEventBuilder.ExceptionValue> values =
+                ((Sentry.SentryEventBuilder.ExceptionInterface) exception).values;
+            for (Sentry.SentryEventBuilder.ExceptionValue value : values) {
+                hash = mix(hash, value.module);
+                hash = mix(hash, value.type);
+                final StackTraceElement[] frames = value.stacktrace.frames;
+                for (int i = 0; i < frames.length && i < FINGERPRINT_FRAMES; i++) {
+                    hash = mix(hash, frames[i].getClassName());
+                    hash = mix(hash, frames[i].getMethodName());
+                    hash = mix(hash, frames[i].getLineNumber());
+                }
+            }
+        } else {
+            hash = mix(hash, asString(event.get("message")));
+        }
+        hash = mix(hash, asString(event.get("culprit")));
+        hash = mix(hash, asString(event.get("level")));
+        return hash;
+    }
+
+    private static String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static long mix(long hash, String value) {
+        if (value == null) {
+            return mix(hash, -1);
+        }
+        for (int i = 0, length = value.length(); i < length; i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // Separator, so that "ab" + "c" and "a" + "bc" differ.
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+
+    private static long mix(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,614 @@
+package com.joshdholtz.sentry;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.zip.CRC32;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Append-only store for unsent events, split over a directory of segment files.
+ * <p>
+ * Every record is written with a single append:
+ * <pre>
+ * type (1 byte) | uuid (2 longs) | body length (int) | crc32 (int) | body
+ * </pre>
+ * An event's body is its priority (1 byte) and the time it was stored (long), then the payload.
+ * <p>
+ * An event is removed by appending an ACK record carrying its uuid, so adding and removing are
+ * both O(1) no matter how large the backlog is. When the active segment grows past its size limit
+ * a new one is started, and sealed segments whose events have all been acknowledged are deleted
+ * on a background thread. Live events left behind in a mostly acknowledged segment are copied
+ * forward first so that a single stuck event can't pin old segments on disk forever.
+ * <p>
+ * A torn write at the tail of a segment fails its length or checksum and is truncated away the
+ * next time the journal is opened, so a crash loses at most the record that was being written.
+ * <p>
+ * The number, total size and age of pending events can be capped, see {@link #trim(long)}.
+ */
+final class EventJournal {
+
+    private static final String TAG = "Sentry";
+
+    static final byte RECORD_EVENT = 1;
+    static final byte RECORD_ACK = 2;
+
+    static final int HEADER_LENGTH = 1 + 8 + 8 + 4 + 4;
+    static final int META_LENGTH = 1 + 8;
+
+    // Priorities run from 0 (evicted first) to PRIORITIES - 1.
+    static final int PRIORITIES = 5;
+    // For events written without a priority.
+    static final int DEFAULT_PRIORITY = 3;
+
+    static final long DEFAULT_SEGMENT_SIZE = 256 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    // Refuse to allocate for obviously corrupt length fields.
+    private static final int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+
+    private final File directory;
+    private final long maxSegmentSize;
+    private final Executor compactor;
+
+    // All of the following state is guarded by `this`.
+    private final LinkedHashMap<UUID, Location> pending = new LinkedHashMap<>();
+    // The pending events again, by priority, oldest first; the next to evict is at the front.
+    private final List<LinkedHashSet<UUID>> byPriority = new ArrayList<>(PRIORITIES);
+    private long pendingBytes;
+    private int maxEvents;
+    private long maxBytes;
+    private long maxAgeMillis;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private FileOutputStream activeOut;
+    private boolean compactionScheduled;
+
+    EventJournal(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, compactionExecutor());
+    }
+
+    EventJournal(File directory, long maxSegmentSize, Executor compactor) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.compactor = compactor;
+        for (int i = 0; i < PRIORITIES; i++) {
+            byPriority.add(new LinkedHashSet<UUID>());
+        }
+    }
+
+    private static Executor compactionExecutor() {
+        final ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable);
+                thread.setName("Sentry Journal Thread");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        return new ThreadPoolExecutor(
+            0, 1,
+            60, SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            threadFactory);
+    }
+
+    private static final class Segment {
+        final long id;
+        final File file;
+        long size;
+        int events;
+        int live;
+
+        Segment(long id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final long offset;
+        // Of the body.
+        final int length;
+        final int priority;
+        final long storedAt;
+
+        Location(Segment segment, long offset, int length, int priority, long storedAt) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.priority = priority;
+            this.storedAt = storedAt;
+        }
+    }
+
+    /**
+     * An event removed by {@link #trim(long)}.
+     */
+    static final class Eviction {
+        final UUID uuid;
+        final int priority;
+        final Sentry.EvictionCause cause;
+
+        Eviction(UUID uuid, int priority, Sentry.EvictionCause cause) {
+            this.uuid = uuid;
+            this.priority = priority;
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * Scan every segment on disk and rebuild the index of unacknowledged events.
+     * Must be called once before any other method.
+     */
+    synchronized void open() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Unable to create journal directory " + directory);
+        }
+
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final long id = segmentId(file.getName());
+                if (id >= 0) {
+                    segments.put(id, new Segment(id, file));
+                }
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            final long valid = scan(segment);
+            if (valid < segment.file.length()) {
+                Log.w(TAG, "Dropping torn record at " + segment.file.getName() + ":" + valid);
+                truncate(segment.file, valid);
+            }
+            segment.size = valid;
+        }
+
+        if (segments.isEmpty()) {
+            active = newSegment(0);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        openActive();
+        scheduleCompaction();
+    }
+
+    synchronized boolean contains(UUID uuid) {
+        return pending.containsKey(uuid);
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return the combined size of the pending events.
+     */
+    synchronized long bytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return the uuids of all unacknowledged events, oldest first.
+     */
+    synchronized List<UUID> pending() {
+        return new ArrayList<>(pending.keySet());
+    }
+
+    synchronized boolean append(UUID uuid, byte[] payload) {
+        return append(uuid, payload, DEFAULT_PRIORITY, System.currentTimeMillis());
+    }
+
+    /**
+     * Append an event. Events that are already pending are ignored.
+     *
+     * @param priority from 0 to {@link #PRIORITIES} - 1. Lower priority events are evicted first.
+     * @param storedAt the wall clock time, for the age limit.
+     * @return true if the event was written.
+     */
+    synchronized boolean append(UUID uuid, byte[] payload, int priority, long storedAt) {
+        if (pending.containsKey(uuid)) {
+            return false;
+        }
+        priority = Math.max(0, Math.min(PRIORITIES - 1, priority));
+        try {
+            index(uuid, appendRecord(RECORD_EVENT, uuid, body(priority, storedAt, payload), priority, storedAt));
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Error appending to journal", e);
+            return false;
+        }
+    }
+
+    /**
+     * Cap the pending events. A limit of 0 or less is no limit. Takes effect on the next
+     * {@link #trim(long)}.
+     */
+    synchronized void setLimits(int maxEvents, long maxBytes, long maxAgeMillis) {
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Acknowledge pending events until the journal is within its limits: first every event
+     * older than the age limit, then the oldest of the lowest priority events until both the
+     * count and the size fit.
+     *
+     * @param now the wall clock time.
+     * @return the evicted events.
+     */
+    synchronized List<Eviction> trim(long now) {
+        List<Eviction> evicted = Collections.emptyList();
+        while (maxAgeMillis > 0 && !pending.isEmpty()) {
+            final Map.Entry<UUID, Location> oldest = pending.entrySet().iterator().next();
+            if (now - oldest.getValue().storedAt <= maxAgeMillis) {
+                break;
+            }
+            evicted = evict(oldest.getKey(), Sentry.EvictionCause.MAX_AGE, evicted);
+        }
+        while (maxEvents > 0 && pending.size() > maxEvents) {
+            evicted = evict(lowest(), Sentry.EvictionCause.MAX_EVENTS, evicted);
+        }
+        while (maxBytes > 0 && pendingBytes > maxBytes) {
+            evicted = evict(lowest(), Sentry.EvictionCause.MAX_BYTES, evicted);
+        }
+        return evicted;
+    }
+
+    private UUID lowest() {
+        for (LinkedHashSet<UUID> uuids : byPriority) {
+            if (!uuids.isEmpty()) {
+                return uuids.iterator().next();
+            }
+        }
+        throw new IllegalStateException("No pending events");
+    }
+
+    private List<Eviction> evict(UUID uuid, Sentry.EvictionCause cause, List<Eviction> evicted) {
+        final int priority = pending.get(uuid).priority;
+        ack(uuid);
+        if (evicted.isEmpty()) {
+            evicted = new ArrayList<>();
+        }
+        evicted.add(new Eviction(uuid, priority, cause));
+        return evicted;
+    }
+
+    private void index(UUID uuid, Location location) {
+        final Location previous = pending.put(uuid, location);
+        if (previous != null) {
+            // A copy made by compaction, which keeps its place in line.
+            previous.segment.live--;
+            pendingBytes -= previous.length;
+            if (previous.priority != location.priority) {
+                byPriority.get(previous.priority).remove(uuid);
+                byPriority.get(location.priority).add(uuid);
+            }
+        } else {
+            byPriority.get(location.priority).add(uuid);
+        }
+        pendingBytes += location.length;
+    }
+
+    private Location unindex(UUID uuid) {
+        final Location location = pending.remove(uuid);
+        if (location != null) {
+            location.segment.live--;
+            byPriority.get(location.priority).remove(uuid);
+            pendingBytes -= location.length;
+        }
+        return location;
+    }
+
+    /**
+     * Mark an event as delivered. Unknown uuids are ignored.
+     */
+    synchronized void ack(UUID uuid) {
+        final Location location = unindex(uuid);
+        if (location == null) {
+            return;
+        }
+        try {
+            appendRecord(RECORD_ACK, uuid, new byte[0], 0, 0);
+        } catch (IOException e) {
+            Log.e(TAG, "Error acknowledging " + uuid, e);
+        }
+        if (location.segment != active && location.segment.live * 2 <= location.segment.events) {
+            scheduleCompaction();
+        }
+    }
+
+    /**
+     * @return the payload of a pending event, or null if it is unknown or unreadable.
+     */
+    synchronized byte[] read(UUID uuid) {
+        final Location location = pending.get(uuid);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return readPayload(location);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading " + uuid + " from journal", e);
+            return null;
+        }
+    }
+
+    private static byte[] body(int priority, long storedAt, byte[] payload) {
+        final byte[] body = new byte[META_LENGTH + payload.length];
+        body[0] = (byte) priority;
+        for (int i = 0; i < 8; i++) {
+            body[1 + i] = (byte) (storedAt >>> (56 - 8 * i));
+        }
+        System.arraycopy(payload, 0, body, META_LENGTH, payload.length);
+        return body;
+    }
+
+    private Location appendRecord(byte type, UUID uuid, byte[] payload, int priority, long storedAt) throws IOException {
+        final long recordLength = HEADER_LENGTH + payload.length;
+        if (active.size > 0 && active.size + recordLength > maxSegmentSize) {
+            roll();
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) recordLength);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+        out.writeInt(payload.length);
+        out.writeInt(checksum(type, uuid, payload, payload.length));
+        out.write(payload);
+
+        // One write call per record keeps a crash from interleaving partial headers.
+        activeOut.write(bytes.toByteArray());
+
+        final Location location = new Location(active, active.size, payload.length, priority, storedAt);
+        active.size += recordLength;
+        if (type != RECORD_ACK) {
+            active.events++;
+            active.live++;
+        }
+        return location;
+    }
+
+    private void roll() throws IOException {
+        activeOut.close();
+        active = newSegment(active.id + 1);
+        openActive();
+        scheduleCompaction();
+    }
+
+    private Segment newSegment(long id) {
+        final Segment segment = new Segment(id, new File(directory,
+            String.format(Locale.US, "%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void openActive() {
+        try {
+            activeOut = new FileOutputStream(active.file, true);
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening journal segment " + active.file, e);
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (compactionScheduled || segments.size() < 2) {
+            return;
+        }
+        compactionScheduled = true;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    /**
+     * Drop sealed segments from the head of the journal. Segments are only ever removed from the
+     * head because an ACK stored in a later segment may refer to an event in an earlier one.
+     */
+    synchronized void compact() {
+        compactionScheduled = false;
+
+        while (true) {
+            // Relocating may roll the active segment, so look the head up afresh each time.
+            final Segment head = segments.firstEntry().getValue();
+            if (head == active || head.live * 2 > head.events) {
+                return;
+            }
+
+            if (head.live > 0 && !relocate(head)) {
+                return;
+            }
+
+            if (!head.file.delete() && head.file.exists()) {
+                Log.w(TAG, "Unable to delete journal segment " + head.file);
+                return;
+            }
+            segments.remove(head.id);
+        }
+    }
+
+    // Copy the remaining live events of a segment into the active segment.
+    private boolean relocate(Segment segment) {
+        final List<Map.Entry<UUID, Location>> moving = new ArrayList<>();
+        for (Map.Entry<UUID, Location> entry : pending.entrySet()) {
+            if (entry.getValue().segment == segment) {
+                moving.add(entry);
+            }
+        }
+
+        try {
+            for (Map.Entry<UUID, Location> entry : moving) {
+                final Location from = entry.getValue();
+                final byte[] body = body(from.priority, from.storedAt, readPayload(from));
+                // The entry is re-keyed in place to keep the pending map in insertion order.
+                final Location to = appendRecord(RECORD_EVENT, entry.getKey(), body, from.priority, from.storedAt);
+                entry.setValue(to);
+                pendingBytes += to.length - from.length;
+                segment.live--;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Error compacting journal segment " + segment.file, e);
+            return false;
+        }
+    }
+
+    private byte[] readPayload(Location location) throws IOException {
+        if (location.segment == active) {
+            activeOut.flush();
+        }
+        final RandomAccessFile file = new RandomAccessFile(location.segment.file, "r");
+        try {
+            file.seek(location.offset);
+            final byte type = file.readByte();
+            final UUID uuid = new UUID(file.readLong(), file.readLong());
+            final int length = file.readInt();
+            final int crc = file.readInt();
+            final byte[] body = new byte[location.length];
+            file.readFully(body);
+            if (length != location.length || crc != checksum(type, uuid, body, length)) {
+                throw new IOException("Checksum mismatch for " + uuid);
+            }
+            final byte[] payload = new byte[length - META_LENGTH];
+            System.arraycopy(body, META_LENGTH, payload, 0, payload.length);
+            return payload;
+        } finally {
+            file.close();
+        }
+    }
+
+    // Index a segment and return the offset of the end of its last intact record.
+    private long scan(Segment segment) {
+        long offset = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+            while (true) {
+                final byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                final UUID uuid = new UUID(in.readLong(), in.readLong());
+                final int length = in.readInt();
+                final int crc = in.readInt();
+                if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+                    break;
+                }
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (crc != checksum(type, uuid, payload, length)) {
+                    break;
+                }
+
+                if (type == RECORD_EVENT && length >= META_LENGTH) {
+                    final int priority = Math.min(PRIORITIES - 1, payload[0] & 0xff);
+                    long storedAt = 0;
+                    for (int i = 1; i < META_LENGTH; i++) {
+                        storedAt = storedAt << 8 | (payload[i] & 0xff);
+                    }
+                    index(uuid, new Location(segment, offset, length, priority, storedAt));
+                    segment.events++;
+                    segment.live++;
+                } else if (type == RECORD_ACK) {
+                    unindex(uuid);
+                } else {
+                    break;
+                }
+                offset += HEADER_LENGTH + length;
+            }
+        } catch (EOFException e) {
+            // Torn record; everything before `offset` is intact.
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading journal segment " + segment.file, e);
+        } finally {
+            closeQuietly(in);
+        }
+        return offset;
+    }
+
+    private static int checksum(byte type, UUID uuid, byte[] payload, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(type);
+        updateLong(crc, uuid.getMostSignificantBits());
+        updateLong(crc, uuid.getLeastSignificantBits());
+        crc.update(payload, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static void updateLong(CRC32 crc, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (value >>> shift));
+        }
+    }
+
+    private static long segmentId(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void truncate(File file, long length) {
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(length);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error truncating journal segment " + file, e);
+        }
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
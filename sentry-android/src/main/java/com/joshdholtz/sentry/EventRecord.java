@@ -0,0 +1,168 @@
+package com.joshdholtz.sentry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The on-disk form of a {@link Sentry.SentryEventRequest}, used for journal entries and the
+ * crash slot.
+ * <pre>
+ * magic (4) | version (1) | flags (1) | [uuid (2 longs)] | payload length (4) | payload
+ * </pre>
+ * The payload is the event's JSON as UTF-8, deflated when that makes it smaller. A journal
+ * entry leaves out the uuid, since the journal keys and checksums every entry already; records
+ * written to a stream carry it, and whatever holds the stream checksums it, as the crash slot
+ * does. Records are self-delimiting, so a stream of them can be read one at a time.
+ */
+final class EventRecord {
+
+    static final int MAGIC = 0x53455654; // "SEVT"
+    static final byte VERSION = 1;
+
+    static final int FLAG_DEFLATED = 1;
+    static final int FLAG_UUID = 2;
+
+    static final int HEADER_LENGTH = 4 + 1 + 1 + 4;
+
+    // Small events don't deflate enough to be worth the time.
+    static final int MIN_DEFLATE_LENGTH = 512;
+
+    // Refuse to allocate for obviously corrupt length fields.
+    private static final int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+
+    private EventRecord() {
+    }
+
+    /**
+     * @return the record for a journal entry, without the uuid.
+     */
+    static byte[] encode(Sentry.SentryEventRequest request) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_LENGTH + request.requestData.length());
+        write(new DataOutputStream(bytes), request, false);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write a record that carries its uuid, for reading back with {@link #read(DataInputStream)}.
+     */
+    static void write(DataOutputStream out, Sentry.SentryEventRequest request) throws IOException {
+        write(out, request, true);
+    }
+
+    private static void write(DataOutputStream out, Sentry.SentryEventRequest request, boolean withUuid) throws IOException {
+        final byte[] json = request.requestData.getBytes("UTF-8");
+        byte[] payload = json;
+        int flags = withUuid ? FLAG_UUID : 0;
+        if (json.length >= MIN_DEFLATE_LENGTH) {
+            final byte[] deflated = deflate(json);
+            if (deflated.length < json.length) {
+                payload = deflated;
+                flags |= FLAG_DEFLATED;
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        if (withUuid) {
+            out.writeLong(request.uuid.getMostSignificantBits());
+            out.writeLong(request.uuid.getLeastSignificantBits());
+        }
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * Read one stored request.
+     *
+     * @param uuid the id the record was stored under, used when the record doesn't carry one.
+     * @throws IOException if the bytes aren't a record, or are corrupt.
+     */
+    static Sentry.SentryEventRequest decode(UUID uuid, byte[] bytes) throws IOException {
+        final Sentry.SentryEventRequest request = read(new DataInputStream(new ByteArrayInputStream(bytes)), uuid);
+        if (request == null) {
+            throw new EOFException("Empty record");
+        }
+        return request;
+    }
+
+    /**
+     * Read the next record from a stream.
+     *
+     * @return the request, or null at the end of the stream.
+     * @throws IOException if the record is corrupt, torn, without a uuid, or from a newer version.
+     */
+    static Sentry.SentryEventRequest read(DataInputStream in) throws IOException {
+        return read(in, null);
+    }
+
+    private static Sentry.SentryEventRequest read(DataInputStream in, UUID uuid) throws IOException {
+        final int magic;
+        try {
+            magic = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (magic != MAGIC) {
+            throw new IOException("Not an event record");
+        }
+        final int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported event record version " + version);
+        }
+        final int flags = in.readByte();
+        if ((flags & FLAG_UUID) != 0) {
+            uuid = new UUID(in.readLong(), in.readLong());
+        } else if (uuid == null) {
+            throw new IOException("Event record without an id");
+        }
+        final int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            throw new IOException("Bad event record length " + length);
+        }
+
+        final byte[] payload = new byte[length];
+        in.readFully(payload);
+
+        final byte[] json = (flags & FLAG_DEFLATED) != 0 ? inflate(payload) : payload;
+        return new Sentry.SentryEventRequest(uuid, new String(json, "UTF-8"));
+    }
+
+    private static byte[] deflate(byte[] bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            final DeflaterOutputStream deflating = new DeflaterOutputStream(out, deflater);
+            deflating.write(bytes);
+            deflating.close();
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] bytes) throws IOException {
+        final InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes));
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
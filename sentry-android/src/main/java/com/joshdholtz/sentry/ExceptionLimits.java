@@ -0,0 +1,158 @@
+package com.joshdholtz.sentry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bounds what capturing a throwable can cost, however deep or strange it is.
+ * <p>
+ * The cause chain stops after a maximum number of throwables, or as soon as a throwable comes
+ * round again, so a chain whose cause points back at itself can't loop forever. Within a stack
+ * trace, a run of frames that repeats back to back, as in a StackOverflowError, keeps its first
+ * repetition only. If the trace is still too long, its innermost and outermost frames are kept
+ * and the ones in between are dropped. Every gap is recorded, so the event can say how many
+ * frames are missing and where.
+ * <p>
+ * Instances are immutable and safe to share between threads.
+ */
+final class ExceptionLimits {
+
+    static final int DEFAULT_MAX_CAUSES = 10;
+    static final int DEFAULT_MAX_FRAMES = 250;
+
+    static final ExceptionLimits DEFAULT =
+        new ExceptionLimits(DEFAULT_MAX_CAUSES, DEFAULT_MAX_FRAMES, true);
+
+    // Longest run of frames recognised as one step of a recursion.
+    static final int MAX_CYCLE = 8;
+    // A run has to repeat this many times in a row before it's folded.
+    static final int MIN_REPEATS = 3;
+
+    final int maxCauses;
+    final int maxFrames;
+    final boolean foldRecursion;
+
+    /**
+     * @param maxCauses     the most throwables to take from a cause chain, or 0 or less for no limit.
+     * @param maxFrames     the most frames to keep per stack trace, or 0 or less for no limit.
+     * @param foldRecursion true to drop repeats of a recursive run of frames.
+     */
+    ExceptionLimits(int maxCauses, int maxFrames, boolean foldRecursion) {
+        this.maxCauses = maxCauses;
+        this.maxFrames = maxFrames;
+        this.foldRecursion = foldRecursion;
+    }
+
+    /**
+     * @return the throwable and its causes, outermost first, within the limit and without
+     * repeating any throwable.
+     */
+    List<Throwable> causes(Throwable t) {
+        final List<Throwable> chain = new ArrayList<>();
+        final Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+        while (t != null && seen.add(t) && (maxCauses <= 0 || chain.size() < maxCauses)) {
+            chain.add(t);
+            t = t.getCause();
+        }
+        return chain;
+    }
+
+    /**
+     * A stack trace with some frames left out. {@code omitted[i]} is the number of frames that
+     * followed {@code frames[i]} in the original trace and were dropped; it is null when the
+     * trace is complete.
+     */
+    static final class Frames {
+        final StackTraceElement[] frames;
+        final int[] omitted;
+
+        Frames(StackTraceElement[] frames, int[] omitted) {
+            this.frames = frames;
+            this.omitted = omitted;
+        }
+    }
+
+    Frames apply(StackTraceElement[] trace) {
+        if (!foldRecursion && (maxFrames <= 0 || trace.length <= maxFrames)) {
+            return new Frames(trace, null);
+        }
+
+        final int n = trace.length;
+        final StackTraceElement[] kept = new StackTraceElement[n];
+        final int[] omitted = new int[n];
+        int count = 0;
+        boolean trimmed = false;
+
+        for (int i = 0; i < n; ) {
+            int cycle = 0;
+            int repeats = 0;
+            if (foldRecursion) {
+                // Of the runs starting here, fold the one that covers the most frames.
+                for (int length = 1; length <= MAX_CYCLE && i + length * MIN_REPEATS <= n; length++) {
+                    final int r = repeats(trace, i, length);
+                    if (r >= MIN_REPEATS && r * length > repeats * cycle) {
+                        cycle = length;
+                        repeats = r;
+                    }
+                }
+            }
+
+            if (cycle == 0) {
+                kept[count++] = trace[i++];
+            } else {
+                System.arraycopy(trace, i, kept, count, cycle);
+                count += cycle;
+                omitted[count - 1] = (repeats - 1) * cycle;
+                trimmed = true;
+                i += repeats * cycle;
+            }
+        }
+
+        if (maxFrames > 0 && count > maxFrames) {
+            // The innermost frames show what failed and the outermost how it got there.
+            final int tail = maxFrames / 2;
+            final int head = maxFrames - tail;
+            int gap = omitted[head - 1];
+            for (int i = head; i < count - tail; i++) {
+                gap += 1 + omitted[i];
+            }
+            omitted[head - 1] = gap;
+            System.arraycopy(kept, count - tail, kept, head, tail);
+            System.arraycopy(omitted, count - tail, omitted, head, tail);
+            count = maxFrames;
+            trimmed = true;
+        }
+
+        if (!trimmed) {
+            return new Frames(trace, null);
+        }
+        final StackTraceElement[] frames = new StackTraceElement[count];
+        final int[] gaps = new int[count];
+        System.arraycopy(kept, 0, frames, 0, count);
+        System.arraycopy(omitted, 0, gaps, 0, count);
+        return new Frames(frames, gaps);
+    }
+
+    // How many times the run of frames at start repeats back to back, counting itself.
+    private static int repeats(StackTraceElement[] trace, int start, int length) {
+        int repeats = 1;
+        int next = start + length;
+        while (next + length <= trace.length && sameRun(trace, start, next, length)) {
+            repeats++;
+            next += length;
+        }
+        return repeats;
+    }
+
+    private static boolean sameRun(StackTraceElement[] trace, int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (!trace[a + i].equals(trace[b + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,96 @@
+package com.joshdholtz.sentry;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the encoded JSON of stack frames and whole stack traces, so an exception that keeps
+ * being thrown costs a lookup instead of a fresh encoding of every frame.
+ * <p>
+ * Frames are keyed by their {@link StackTraceElement} and traces by the hash of their frame
+ * array, checked against the frames themselves on a hit. A frame's "in_app" flag comes from the
+ * classifier the cache was built with, so a new cache is made whenever the classifier changes.
+ * Both maps are bounded the same way as the classifier's: once full they start over, which is
+ * cheap and fine for crash storms that repeat a small set of frames.
+ * <p>
+ * Safe to share between threads.
+ */
+final class FrameCache {
+
+    static final int MAX_FRAMES = 2048;
+    static final int MAX_TRACES = 64;
+
+    private static final class Trace {
+        final StackTraceElement[] frames;
+        final String json;
+
+        Trace(StackTraceElement[] frames, String json) {
+            this.frames = frames;
+            this.json = json;
+        }
+    }
+
+    final FrameClassifier classifier;
+    private final ConcurrentHashMap<StackTraceElement, String> frames = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Trace> traces = new ConcurrentHashMap<>();
+
+    FrameCache(FrameClassifier classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * @return the {@code {"frames":[...]}} object for a stack trace, with frames in the order the
+     * Sentry API expects (outermost call first).
+     */
+    String trace(StackTraceElement[] stackTrace) {
+        final Integer key = Arrays.hashCode(stackTrace);
+        final Trace cached = traces.get(key);
+        if (cached != null && Arrays.equals(cached.frames, stackTrace)) {
+            return cached.json;
+        }
+
+        final StringBuilder json = new StringBuilder(64 + stackTrace.length * 96);
+        json.append("{\"frames\":[");
+        // Java stack frames are in the opposite order from what the Sentry client API expects.
+        // > The zeroth element of the array (assuming the array's length is non-zero)
+        // > represents the top of the stack, which is the last method invocation in the
+        // > sequence.
+        // See:
+        // https://docs.oracle.com/javase/7/docs/api/java/lang/Throwable.html#getStackTrace()
+        // https://docs.sentry.io/clientdev/interfaces/#failure-interfaces
+        for (int i = stackTrace.length - 1; i >= 0; i--) {
+            if (i != stackTrace.length - 1) {
+                json.append(',');
+            }
+            json.append(frame(stackTrace[i]));
+        }
+        json.append("]}");
+
+        final String encoded = json.toString();
+        if (traces.size() >= MAX_TRACES) {
+            traces.clear();
+        }
+        traces.put(key, new Trace(stackTrace, encoded));
+        return encoded;
+    }
+
+    /**
+     * @return the JSON object for a single frame.
+     */
+    String frame(StackTraceElement ste) {
+        final String cached = frames.get(ste);
+        if (cached != null) {
+            return cached;
+        }
+
+        final StringBuilder json = new StringBuilder(96);
+        Sentry.SentryEventBuilder.writeFrame(new JsonWriter(json), ste, classifier);
+        final String encoded = json.toString();
+
+        if (frames.size() >= MAX_FRAMES) {
+            frames.clear();
+        }
+        frames.put(ste, encoded);
+        return encoded;
+    }
+}
@@ -0,0 +1,146 @@
+package com.joshdholtz.sentry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether a stack frame's class belongs to the app ("in_app") or to a library.
+ * <p>
+ * Package prefixes are stored in a character trie, so classifying a class name is a single
+ * allocation-free walk over its characters. A prefix only matches on a package boundary, so
+ * "java" matches "java.util.List" but not "javax.net.ssl.SSLSocket". When several prefixes
+ * match, the longest one wins, and an include beats an exclude of the same length. Classes that
+ * match nothing are in-app.
+ * <p>
+ * Instances are immutable apart from a bounded cache of results, and safe to share between threads.
+ */
+final class FrameClassifier {
+
+    // Match packages names that start with some well-known internal class-paths.
+    static final List<String> DEFAULT_EXCLUDES = Collections.unmodifiableList(Arrays.asList(
+        "java",
+        "android",
+        "com.android",
+        "com.google.android",
+        "dalvik.system"));
+
+    static final FrameClassifier DEFAULT =
+        new FrameClassifier(Collections.<String>emptyList(), DEFAULT_EXCLUDES);
+
+    private static final int MAX_CACHED = 2048;
+
+    private static final byte NONE = 0;
+    private static final byte EXCLUDE = 1;
+    private static final byte INCLUDE = 2;
+
+    private static final class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        byte mark = NONE;
+
+        Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node getOrAdd(char c) {
+            final Node existing = child(c);
+            if (existing != null) {
+                return existing;
+            }
+            final int n = keys.length;
+            keys = Arrays.copyOf(keys, n + 1);
+            children = Arrays.copyOf(children, n + 1);
+            keys[n] = c;
+            children[n] = new Node();
+            return children[n];
+        }
+    }
+
+    private final Node root = new Node();
+    private final List<String> includes;
+    private final List<String> excludes;
+    private final ConcurrentHashMap<String, Boolean> cache = new ConcurrentHashMap<>();
+
+    FrameClassifier(List<String> includes, List<String> excludes) {
+        this.includes = Collections.unmodifiableList(new ArrayList<>(includes));
+        this.excludes = Collections.unmodifiableList(new ArrayList<>(excludes));
+        for (String prefix : excludes) {
+            add(prefix, EXCLUDE);
+        }
+        for (String prefix : includes) {
+            add(prefix, INCLUDE);
+        }
+    }
+
+    FrameClassifier withInclude(String prefix) {
+        final List<String> updated = new ArrayList<>(includes);
+        updated.add(prefix);
+        return new FrameClassifier(updated, excludes);
+    }
+
+    FrameClassifier withExclude(String prefix) {
+        final List<String> updated = new ArrayList<>(excludes);
+        updated.add(prefix);
+        return new FrameClassifier(includes, updated);
+    }
+
+    private void add(String prefix, byte mark) {
+        if (prefix == null) {
+            return;
+        }
+        while (prefix.endsWith(".")) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        if (prefix.length() == 0) {
+            return;
+        }
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.getOrAdd(prefix.charAt(i));
+        }
+        // An include wins over an exclude for the same prefix.
+        node.mark = (byte) Math.max(node.mark, mark);
+    }
+
+    /**
+     * @param className a fully qualified class name.
+     * @return true unless the class belongs to an excluded package.
+     */
+    boolean isInApp(String className) {
+        final Boolean cached = cache.get(className);
+        if (cached != null) {
+            return cached;
+        }
+
+        final boolean inApp = classify(className) != EXCLUDE;
+
+        if (cache.size() >= MAX_CACHED) {
+            // Cheap bound: crash storms reuse a small set of classes, so starting over is fine.
+            cache.clear();
+        }
+        cache.put(className, inApp);
+        return inApp;
+    }
+
+    private byte classify(String className) {
+        byte result = NONE;
+        Node node = root;
+        final int length = className.length();
+        for (int i = 0; i < length && node != null; i++) {
+            final char c = className.charAt(i);
+            if (c == '.' && node.mark != NONE) {
+                result = node.mark;
+            }
+            node = node.child(c);
+        }
+        return result;
+    }
+}
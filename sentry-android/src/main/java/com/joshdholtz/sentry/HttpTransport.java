@@ -0,0 +1,212 @@
+package com.joshdholtz.sentry;
+
+import android.util.Log;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Posts events to the store endpoint over HTTP(S), reusing connections between sends.
+ * <p>
+ * Everything that doesn't change between events (the store URL, the auth header and, when SSL
+ * verification is off, the socket factory) is computed once up front. Connections are never
+ * explicitly disconnected; instead each response is read to the end and closed, which returns
+ * the socket to HttpURLConnection's keep-alive pool so that a burst of events shares one
+ * TCP connection and TLS handshake.
+ * <p>
+ * With compression turned on, the body is encoded and gzipped straight into the connection's
+ * output stream, using chunked transfer encoding, without building the whole payload as a byte
+ * array first.
+ */
+final class HttpTransport implements Transport {
+
+    private static final String TAG = "Sentry";
+
+    private static final int TIMEOUT_MILLIS = (int) SECONDS.toMillis(10);
+
+    private final URL storeUrl;
+    private final String authHeader;
+    private final String userAgent;
+
+    // Only set when SSL verification is disabled. Shared by every connection, since sockets
+    // are only pooled between connections using the same factory.
+    private final SSLSocketFactory insecureSocketFactory;
+
+    private volatile boolean compress;
+
+    // Payload sizes before and after compression, for compressed sends only.
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    HttpTransport(URL storeUrl, String authHeader, boolean verifySsl) {
+        this.storeUrl = storeUrl;
+        this.authHeader = authHeader;
+        this.userAgent = "sentry-android/" + BuildConfig.SENTRY_ANDROID_VERSION;
+        this.insecureSocketFactory = verifySsl ? null : insecureSocketFactory();
+    }
+
+    @Override
+    public Response send(String requestData) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) storeUrl.openConnection();
+
+        if (insecureSocketFactory != null && conn instanceof HttpsURLConnection) {
+            final HttpsURLConnection https = (HttpsURLConnection) conn;
+            https.setSSLSocketFactory(insecureSocketFactory);
+            https.setHostnameVerifier(ALLOW_ALL_HOSTNAMES);
+        }
+
+        conn.setConnectTimeout(TIMEOUT_MILLIS);
+        conn.setReadTimeout(TIMEOUT_MILLIS);
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("X-Sentry-Auth", authHeader);
+        conn.setRequestProperty("User-Agent", userAgent);
+        conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+
+        if (compress) {
+            writeCompressed(conn, requestData);
+        } else {
+            final byte[] body = requestData.getBytes("UTF-8");
+            conn.setFixedLengthStreamingMode(body.length);
+            final OutputStream os = conn.getOutputStream();
+            try {
+                os.write(body);
+            } finally {
+                os.close();
+            }
+        }
+
+        final int status = conn.getResponseCode();
+        final Response response = new Response(status,
+            conn.getHeaderField("Retry-After"), conn.getHeaderField("X-Sentry-Rate-Limits"));
+        drain(conn, status);
+        return response;
+    }
+
+    private void writeCompressed(HttpURLConnection conn, String requestData) throws IOException {
+        conn.setRequestProperty("Content-Encoding", "gzip");
+        conn.setChunkedStreamingMode(0);
+
+        final CountingOutputStream wire = new CountingOutputStream(conn.getOutputStream());
+        final CountingOutputStream plain = new CountingOutputStream(new GZIPOutputStream(wire));
+        final Writer writer = new OutputStreamWriter(plain, "UTF-8");
+        try {
+            writer.write(requestData);
+        } finally {
+            // Finishes the gzip trailer and closes the connection's stream.
+            writer.close();
+        }
+
+        uncompressedBytes.addAndGet(plain.count);
+        compressedBytes.addAndGet(wire.count);
+    }
+
+    void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * @return the number of bytes compression has kept off the wire so far.
+     */
+    long bytesSaved() {
+        return uncompressedBytes.get() - compressedBytes.get();
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    // Read the response to the end so that the connection can go back to the pool.
+    private void drain(HttpURLConnection conn, int status) {
+        InputStream in = null;
+        try {
+            in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            if (in == null) {
+                return;
+            }
+            final byte[] buffer = new byte[512];
+            while (in.read(buffer) != -1) {
+                // discard
+            }
+        } catch (IOException e) {
+            // The connection won't be reused, which is harmless.
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static final HostnameVerifier ALLOW_ALL_HOSTNAMES = new HostnameVerifier() {
+        public boolean verify(String host, SSLSession sess) {
+            return true;
+        }
+    };
+
+    private static SSLSocketFactory insecureSocketFactory() {
+        try {
+            final X509TrustManager x509TrustManager = new X509TrustManager() {
+                @Override
+                public void checkClientTrusted(X509Certificate[] chain,
+                                               String authType) throws CertificateException {
+                }
+
+                @Override
+                public void checkServerTrusted(X509Certificate[] chain,
+                                               String authType) throws CertificateException {
+                }
+
+                @Override
+                public X509Certificate[] getAcceptedIssuers() {
+                    return null;
+                }
+            };
+
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[]{x509TrustManager}, null);
+            return sslContext.getSocketFactory();
+        } catch (Exception ex) {
+            Log.w(TAG, "Error bypassing SSL validation", ex);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.joshdholtz.sentry;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats epoch milliseconds as a UTC ISO 8601 timestamp without a timezone suffix, which is
+ * what the Sentry server expects: "2011-05-02T17:41:36", optionally with ".123" milliseconds.
+ * <p>
+ * The date is computed arithmetically and written into a small char array, so there is no
+ * shared formatter, no lock and no Date or Calendar per call, and it is safe to call from any
+ * thread.
+ */
+final class Iso8601 {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    // Years outside this range don't fit the fixed four digit layout.
+    private static final long MIN_MILLIS = -62135596800000L; // 0001-01-01T00:00:00
+    private static final long MAX_MILLIS = 253402300799999L; // 9999-12-31T23:59:59.999
+
+    private Iso8601() {
+    }
+
+    static String format(long epochMillis) {
+        return format(epochMillis, false);
+    }
+
+    static String format(long epochMillis, boolean withMillis) {
+        if (epochMillis < MIN_MILLIS || epochMillis > MAX_MILLIS) {
+            return formatSlow(epochMillis, withMillis);
+        }
+
+        final long days = floorDiv(epochMillis, MILLIS_PER_DAY);
+        final int millisOfDay = (int) (epochMillis - days * MILLIS_PER_DAY);
+
+        // Civil date from days since 1970-01-01, see
+        // http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        final long z = days + 719468;
+        final long era = floorDiv(z, 146097);
+        final int dayOfEra = (int) (z - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int mp = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        final int month = mp < 10 ? mp + 3 : mp - 9;
+        final int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        final int seconds = millisOfDay / 1000;
+        final char[] out = new char[withMillis ? 23 : 19];
+        digits(out, 0, year, 4);
+        out[4] = '-';
+        digits(out, 5, month, 2);
+        out[7] = '-';
+        digits(out, 8, day, 2);
+        out[10] = 'T';
+        digits(out, 11, seconds / 3600, 2);
+        out[13] = ':';
+        digits(out, 14, seconds / 60 % 60, 2);
+        out[16] = ':';
+        digits(out, 17, seconds % 60, 2);
+        if (withMillis) {
+            out[19] = '.';
+            digits(out, 20, millisOfDay % 1000, 3);
+        }
+        return new String(out);
+    }
+
+    private static void digits(char[] out, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        final long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+
+    // Dates nobody should be sending; not worth a fast path.
+    private static String formatSlow(long epochMillis, boolean withMillis) {
+        final SimpleDateFormat format = new SimpleDateFormat(
+            withMillis ? "yyyy-MM-dd'T'HH:mm:ss.SSS" : "yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(epochMillis));
+    }
+}
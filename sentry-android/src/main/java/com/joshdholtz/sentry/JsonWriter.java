@@ -0,0 +1,305 @@
+package com.joshdholtz.sentry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Streams a JSON document into a StringBuilder without building an org.json tree first.
+ * <p>
+ * The output matches what {@code new JSONObject(map).toString()} produces on Android byte for
+ * byte: the same key order, string escaping and number formatting. Existing {@link JSONObject}
+ * and {@link JSONArray} values are walked in place, and {@link Streamable} values write
+ * themselves, which lets large parts of an event (such as stack traces) skip the intermediate
+ * objects entirely.
+ */
+final class JsonWriter {
+
+    /**
+     * A value that knows how to write itself as JSON.
+     */
+    interface Streamable {
+        void writeJson(JsonWriter writer);
+    }
+
+    // Buffers above this size are not kept for reuse, so one huge event can't pin the memory.
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(4096);
+        }
+    };
+
+    private final StringBuilder out;
+
+    // One entry per open object or array: true until its first member has been written.
+    private boolean[] empty = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    /**
+     * Encode a map the way {@code new JSONObject(map).toString()} would, reusing a per-thread
+     * buffer for the output.
+     */
+    static String toJson(Map<String, ?> map) {
+        final StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        new JsonWriter(buffer).map(map);
+        final String json = buffer.toString();
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            BUFFER.remove();
+        }
+        return json;
+    }
+
+    JsonWriter beginObject() {
+        beforeValue();
+        out.append('{');
+        push();
+        return this;
+    }
+
+    JsonWriter endObject() {
+        depth--;
+        out.append('}');
+        return this;
+    }
+
+    JsonWriter beginArray() {
+        beforeValue();
+        out.append('[');
+        push();
+        return this;
+    }
+
+    JsonWriter endArray() {
+        depth--;
+        out.append(']');
+        return this;
+    }
+
+    JsonWriter name(String name) {
+        if (!empty[depth - 1]) {
+            out.append(',');
+        }
+        empty[depth - 1] = false;
+        string(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    JsonWriter value(long value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    JsonWriter value(boolean value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    JsonWriter nullValue() {
+        beforeValue();
+        out.append("null");
+        return this;
+    }
+
+    /**
+     * Write a value that is already encoded as JSON, such as a cached fragment, without looking
+     * at it.
+     */
+    JsonWriter raw(String json) {
+        beforeValue();
+        out.append(json);
+        return this;
+    }
+
+    /**
+     * Write a value held inside a JSONObject or JSONArray, following JSONStringer's rules.
+     */
+    JsonWriter value(Object value) {
+        if (value instanceof Streamable) {
+            ((Streamable) value).writeJson(this);
+        } else if (value instanceof JSONObject) {
+            jsonObject((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            jsonArray((JSONArray) value);
+        } else if (value == null || value == JSONObject.NULL) {
+            nullValue();
+        } else if (value instanceof Boolean) {
+            value(((Boolean) value).booleanValue());
+        } else if (value instanceof Number) {
+            beforeValue();
+            number((Number) value);
+        } else {
+            value(value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Write a map as {@code new JSONObject(map)} would see it, including JSONObject.wrap's
+     * conversion of nested collections, arrays and maps.
+     */
+    JsonWriter map(Map<?, ?> map) {
+        beginObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            name((String) entry.getKey());
+            wrapped(entry.getValue());
+        }
+        return endObject();
+    }
+
+    private void wrapped(Object value) {
+        if (value == null || value instanceof Streamable || value instanceof JSONObject
+            || value instanceof JSONArray || value == JSONObject.NULL) {
+            value(value);
+        } else if (value instanceof Collection) {
+            beginArray();
+            for (Object element : (Collection<?>) value) {
+                wrapped(element);
+            }
+            endArray();
+        } else if (value.getClass().isArray()) {
+            beginArray();
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                wrapped(Array.get(value, i));
+            }
+            endArray();
+        } else if (value instanceof Map) {
+            map((Map<?, ?>) value);
+        } else if (value instanceof Boolean || value instanceof Number
+            || value instanceof Character || value instanceof String) {
+            value(value);
+        } else if (value.getClass().getPackage() != null
+            && value.getClass().getPackage().getName().startsWith("java.")) {
+            value(value.toString());
+        } else {
+            // JSONObject.wrap gives up on anything else.
+            nullValue();
+        }
+    }
+
+    private void jsonObject(JSONObject object) {
+        beginObject();
+        // Raw in the Android API.
+        final Iterator<?> keys = object.keys();
+        while (keys.hasNext()) {
+            final String key = (String) keys.next();
+            name(key);
+            value(object.opt(key));
+        }
+        endObject();
+    }
+
+    private void jsonArray(JSONArray array) {
+        beginArray();
+        final int length = array.length();
+        for (int i = 0; i < length; i++) {
+            value(array.opt(i));
+        }
+        endArray();
+    }
+
+    private void push() {
+        if (depth == empty.length) {
+            final boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(empty, 0, grown, 0, depth);
+            empty = grown;
+        }
+        empty[depth++] = true;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (!empty[depth - 1]) {
+                out.append(',');
+            }
+            empty[depth - 1] = false;
+        }
+    }
+
+    // Same as JSONObject.numberToString.
+    private void number(Number number) {
+        final double doubleValue = number.doubleValue();
+        if (number.equals(-0d)) {
+            out.append("-0");
+            return;
+        }
+        final long longValue = number.longValue();
+        if (doubleValue == (double) longValue) {
+            out.append(longValue);
+        } else {
+            out.append(number.toString());
+        }
+    }
+
+    // Same escaping as JSONStringer.string.
+    private void string(String value) {
+        out.append('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    out.append('\\').append(c);
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        out.append("\\u00");
+                        out.append(HEX[c >> 4]);
+                        out.append(HEX[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        out.append('"');
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
@@ -0,0 +1,98 @@
+package com.joshdholtz.sentry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for what the client itself does and costs. Everything is an
+ * atomic, so recording never takes a lock and is cheap enough for the capture path.
+ *
+ * @see Sentry#getStats()
+ */
+final class Metrics {
+
+    // Microseconds.
+    static final long[] SERIALIZATION_BOUNDS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000};
+    // Milliseconds.
+    static final long[] DELIVERY_BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    // Events passed to captureEvent.
+    final AtomicLong captured = new AtomicLong();
+    final AtomicLong sampledOut = new AtomicLong();
+    final AtomicLong deduplicated = new AtomicLong();
+    // Delivery queue overflow.
+    final AtomicLong dropped = new AtomicLong();
+    final AtomicLong spilled = new AtomicLong();
+    // Offline cache.
+    final AtomicLong persisted = new AtomicLong();
+    final AtomicLong evicted = new AtomicLong();
+    final AtomicLong backlogEvents = new AtomicLong();
+    final AtomicLong backlogBytes = new AtomicLong();
+    // Delivery outcomes. Retried counts events put back in the cache to wait out a failure or a
+    // rate limit.
+    final AtomicLong sent = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong retried = new AtomicLong();
+
+    final Histogram serializationMicros = new Histogram(SERIALIZATION_BOUNDS);
+    final Histogram deliveryMillis = new Histogram(DELIVERY_BOUNDS);
+
+    Sentry.Stats snapshot() {
+        return new Sentry.Stats(this);
+    }
+
+    /**
+     * Counts values into fixed buckets: bucket i holds values up to bounds[i], and a last bucket
+     * holds everything larger.
+     */
+    static final class Histogram {
+        final long[] bounds;
+        private final AtomicLongArray counts;
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.counts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        void record(long value) {
+            counts.incrementAndGet(bucket(value));
+            sum.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        private int bucket(long value) {
+            int low = 0;
+            int high = bounds.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (value <= bounds[mid]) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
+        long[] counts() {
+            final long[] copy = new long[counts.length()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = counts.get(i);
+            }
+            return copy;
+        }
+
+        long sum() {
+            return sum.get();
+        }
+
+        long max() {
+            return max.get();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.joshdholtz.sentry;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tracks when the server has asked us to stop sending, and backs off while it is unreachable
+ * or overloaded.
+ * <p>
+ * Limits come from the {@code X-Sentry-Rate-Limits} header, which can suspend individual data
+ * categories, or from {@code Retry-After} on a 429, which suspends everything. Network errors
+ * and 5xx responses without a {@code Retry-After} suspend everything for an exponentially
+ * growing, jittered delay, so that a fleet of devices doesn't retry in lockstep during an
+ * outage. Any response the server actually processed resets the backoff.
+ * <p>
+ * Times are milliseconds on a monotonic clock supplied by the caller.
+ */
+final class RateLimiter {
+
+    static final long DEFAULT_RETRY_AFTER_MILLIS = 60 * 1000;
+    static final long INITIAL_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    // Deadline key for limits that apply to every category.
+    private static final String ALL = "";
+
+    private final Random random;
+    private final Map<String, Long> deadlines = new HashMap<>();
+    private int failures;
+
+    RateLimiter(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * @return true if events of this category should not be sent yet.
+     */
+    synchronized boolean isLimited(String category, long now) {
+        return retryAt(category) > now;
+    }
+
+    /**
+     * @return the time after which this category may be sent again, or 0 if it never was limited.
+     */
+    synchronized long retryAt(String category) {
+        final Long all = deadlines.get(ALL);
+        final Long own = deadlines.get(category);
+        return Math.max(all == null ? 0 : all, own == null ? 0 : own);
+    }
+
+    synchronized void onResponse(Transport.Response response, long now) {
+        final int status = response.status;
+
+        // A header with no usable limit in it counts as no header.
+        final boolean limited = response.rateLimits != null && parseRateLimits(response.rateLimits, now);
+        if (!limited && (status == 429 || (status >= 500 && response.retryAfter != null))) {
+            suspend(ALL, now + retryAfterMillis(response.retryAfter));
+        }
+
+        if (status >= 500 && response.retryAfter == null && !limited) {
+            backOff(now);
+        } else {
+            failures = 0;
+        }
+    }
+
+    /**
+     * The event never reached the server.
+     */
+    synchronized void onFailure(long now) {
+        backOff(now);
+    }
+
+    private void backOff(long now) {
+        final long delay = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(failures, 20));
+        failures++;
+        // Somewhere in the upper half of the delay.
+        final long jittered = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+        suspend(ALL, now + jittered);
+    }
+
+    private void suspend(String category, long until) {
+        final Long current = deadlines.get(category);
+        if (current == null || current < until) {
+            deadlines.put(category, until);
+        }
+    }
+
+    // "60:error;transaction:key, 2700:default;error;security:organization"
+    // Returns false if no limit could be read from the header.
+    private boolean parseRateLimits(String header, long now) {
+        boolean parsed = false;
+        for (String limit : header.split(",")) {
+            final String[] parts = limit.trim().split(":", -1);
+            if (parts.length < 2) {
+                continue;
+            }
+            final long millis;
+            try {
+                millis = (long) (Double.parseDouble(parts[0].trim()) * 1000);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            parsed = true;
+            final String categories = parts[1].trim();
+            if (categories.length() == 0) {
+                suspend(ALL, now + millis);
+                continue;
+            }
+            for (String category : categories.split(";")) {
+                final String trimmed = category.trim();
+                if (trimmed.length() > 0) {
+                    suspend(trimmed, now + millis);
+                }
+            }
+        }
+        return parsed;
+    }
+
+    // Retry-After is either a number of seconds or an HTTP date.
+    static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null) {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+        final String value = retryAfter.trim();
+        try {
+            return Math.max(0, (long) (Double.parseDouble(value) * 1000));
+        } catch (NumberFormatException e) {
+            // Not a number, try a date.
+        }
+        try {
+            final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+    }
+}
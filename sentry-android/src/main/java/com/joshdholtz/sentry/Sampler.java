@@ -0,0 +1,141 @@
+package com.joshdholtz.sentry;
+
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides which events are sent, by rate, before any work is spent building them.
+ * <p>
+ * Rates can be set per tag value, per logger and per level, on top of a default rate. The most
+ * specific match wins: a tag rate over a logger rate, a logger rate over a level rate. When
+ * several tag rates match, the lowest applies.
+ * <p>
+ * The decision is a hash of the event's fingerprint rather than a coin toss, so repeats of the
+ * same event are consistently kept or dropped for the life of the process. The hash is salted
+ * per process, so different devices still sample different events.
+ * <p>
+ * Instances are immutable and safe to share between threads.
+ */
+final class Sampler {
+
+    static final Sampler DEFAULT = new Sampler(1.0,
+        Collections.<String, Double>emptyMap(),
+        Collections.<String, Double>emptyMap(),
+        Collections.<String, Map<String, Double>>emptyMap(),
+        new Random().nextLong());
+
+    private final double defaultRate;
+    private final Map<String, Double> levels;
+    private final Map<String, Double> loggers;
+    private final Map<String, Map<String, Double>> tags;
+    private final long salt;
+
+    private Sampler(double defaultRate, Map<String, Double> levels, Map<String, Double> loggers,
+                    Map<String, Map<String, Double>> tags, long salt) {
+        this.defaultRate = defaultRate;
+        this.levels = levels;
+        this.loggers = loggers;
+        this.tags = tags;
+        this.salt = salt;
+    }
+
+    Sampler withDefaultRate(double rate) {
+        return new Sampler(clamp(rate), levels, loggers, tags, salt);
+    }
+
+    Sampler withLevelRate(Sentry.SentryEventLevel level, double rate) {
+        final Map<String, Double> updated = new HashMap<>(levels);
+        updated.put(level.value, clamp(rate));
+        return new Sampler(defaultRate, updated, loggers, tags, salt);
+    }
+
+    Sampler withLoggerRate(String logger, double rate) {
+        final Map<String, Double> updated = new HashMap<>(loggers);
+        updated.put(logger, clamp(rate));
+        return new Sampler(defaultRate, levels, updated, tags, salt);
+    }
+
+    Sampler withTagRate(String key, String value, double rate) {
+        final Map<String, Map<String, Double>> updated = new HashMap<>(tags);
+        final Map<String, Double> values = updated.containsKey(key)
+            ? new HashMap<>(updated.get(key))
+            : new HashMap<String, Double>();
+        values.put(value, clamp(rate));
+        updated.put(key, values);
+        return new Sampler(defaultRate, levels, loggers, updated, salt);
+    }
+
+    /**
+     * @return false if every event is sent, so callers can skip computing a fingerprint.
+     */
+    boolean isActive() {
+        return defaultRate < 1.0 || !levels.isEmpty() || !loggers.isEmpty() || !tags.isEmpty();
+    }
+
+    /**
+     * @return true if the event should be sent.
+     */
+    boolean sample(Map<String, Object> event, long fingerprint) {
+        final double rate = rateFor(event);
+        if (rate >= 1.0) {
+            return true;
+        }
+        if (rate <= 0.0) {
+            return false;
+        }
+        return unit(fingerprint ^ salt) < rate;
+    }
+
+    double rateFor(Map<String, Object> event) {
+        final Double tagRate = tagRate(event.get("tags"));
+        if (tagRate != null) {
+            return tagRate;
+        }
+        final Double loggerRate = loggers.get(event.get("logger"));
+        if (loggerRate != null) {
+            return loggerRate;
+        }
+        final Double levelRate = levels.get(event.get("level"));
+        if (levelRate != null) {
+            return levelRate;
+        }
+        return defaultRate;
+    }
+
+    private Double tagRate(Object eventTags) {
+        if (tags.isEmpty() || !(eventTags instanceof JSONObject)) {
+            return null;
+        }
+        final JSONObject values = (JSONObject) eventTags;
+        Double lowest = null;
+        for (Map.Entry<String, Map<String, Double>> entry : tags.entrySet()) {
+            final Object value = values.opt(entry.getKey());
+            if (value == null) {
+                continue;
+            }
+            final Double rate = entry.getValue().get(value.toString());
+            if (rate != null && (lowest == null || rate < lowest)) {
+                lowest = rate;
+            }
+        }
+        return lowest;
+    }
+
+    // Spread the bits of a hash (MurmurHash3's finalizer) and map it onto [0, 1).
+    private static double unit(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    private static double clamp(double rate) {
+        return Math.max(0.0, Math.min(1.0, rate));
+    }
+}
@@ -1,63 +1,56 @@
 package com.joshdholtz.sentry;
 
-import android.Manifest.permission;
+import android.app.Activity;
+import android.app.Application;
+import android.content.ComponentCallbacks;
 import android.content.Context;
 import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.content.res.Configuration;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Build;
-import android.util.DisplayMetrics;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
-import android.view.WindowManager;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
@@ -66,18 +59,75 @@ public class Sentry {
     private static final String TAG = "Sentry";
     private final static String sentryVersion = "7";
     private static final int MAX_QUEUE_LENGTH = 50;
+    // When the capture pipeline falls behind, or has been switched off, capture on the calling
+    // thread rather than drop. Unlike CallerRunsPolicy, this also runs tasks rejected by a pipeline
+    // that is shutting down.
+    private static final RejectedExecutionHandler CAPTURE_ON_CALLER = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            task.run();
+        }
+    };
+    private static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 100;
+    // The rate limit category of every event this client sends.
+    private static final String EVENT_CATEGORY = "error";
+    private static final String BREADCRUMB_LOG_NAME = "sentry_breadcrumbs";
+    private static final int DEFAULT_MAX_STORED_EVENTS = 1000;
+    private static final long DEFAULT_MAX_STORED_BYTES = 10 * 1024 * 1024;
+    private static final long DEFAULT_MAX_STORED_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+    // How long the backlog replay waits for the delivery queue before checking the network again.
+    private static final long REPLAY_WAIT_MILLIS = 1000;
 
     public static boolean debug = false;
 
     private Context context;
     private String baseUrl;
     private Uri dsn;
-    private AppInfo appInfo = AppInfo.Empty;
+    private HttpTransport transport;
+    private boolean compressionEnabled;
+    private String packageName = "";
     private boolean verifySsl;
     private SentryEventCaptureListener captureListener;
-    private JSONObject contexts = new JSONObject();
-    private Executor executor;
+    private volatile DeviceContexts contexts;
+    private final Object contextsLock = new Object();
+    private boolean trackingConfiguration;
+    private volatile DeliveryExecutor executor;
+    private int deliveryWorkers = 1;
+    private int deliveryQueueSize = MAX_QUEUE_LENGTH;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.SPILL_TO_DISK;
+    private long blockTimeoutMillis = DEFAULT_BLOCK_TIMEOUT_MILLIS;
+    final Metrics metrics = new Metrics();
+    private ScheduledThreadPoolExecutor statsExporter;
+    private volatile StorageEvictionListener evictionListener;
+    private volatile int maxStoredEvents = DEFAULT_MAX_STORED_EVENTS;
+    private volatile long maxStoredBytes = DEFAULT_MAX_STORED_BYTES;
+    private volatile long maxStoredAgeMillis = DEFAULT_MAX_STORED_AGE_MILLIS;
+    private final RateLimiter rateLimiter = new RateLimiter(new Random());
+    private final AtomicBoolean retryScheduled = new AtomicBoolean();
+    private final AtomicBoolean replayRequested = new AtomicBoolean();
+    // Everything kept off the thread calling into the library, one task at a time: reading the
+    // contexts, mapping the crash slot, the abnormal termination event, storage limit changes,
+    // deduplication summaries and the backlog replay. Most are queued once per init or setting
+    // change; summaries and the replay at most once at a time, see summariesScheduled and
+    // replayRequested.
+    private final Executor background = new ThreadPoolExecutor(
+        0, 1,
+        60, SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        namedThreadFactory("Sentry Background Thread %d"));
+    private Handler handler;
+    private volatile CrashSlot crashSlot;
+    private final Object crashSlotLock = new Object();
+    private boolean persistBreadcrumbs;
+    private ConnectivityMonitor connectivity;
+    private volatile Sampler sampler = Sampler.DEFAULT;
+    private volatile ThreadPoolExecutor capturePipeline;
+    private volatile EventAggregator<SentryEventBuilder> aggregator;
+    private final AtomicBoolean summariesScheduled = new AtomicBoolean();
     final Breadcrumbs breadcrumbs = new Breadcrumbs();
+    volatile FrameClassifier frameClassifier = FrameClassifier.DEFAULT;
+    volatile FrameCache frameCache = new FrameCache(FrameClassifier.DEFAULT);
+    volatile ExceptionLimits exceptionLimits = ExceptionLimits.DEFAULT;
 
     public enum SentryEventLevel {
 
@@ -87,13 +137,41 @@ public class Sentry {
         INFO("info"),
         DEBUG("debug");
 
-        private final String value;
+        final String value;
 
         SentryEventLevel(String value) {
             this.value = value;
         }
     }
 
+    /**
+     * What to do with a captured event when the delivery queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Discard the event that was just captured. */
+        DROP_NEWEST,
+        /** Discard the oldest queued event to make room. */
+        DROP_OLDEST,
+        /** Save the event to the offline cache, to be sent by {@link #sendAllCachedCapturedEvents()}. */
+        SPILL_TO_DISK,
+        /** Wait for room in the queue, then save the event to the offline cache if none frees up in time. */
+        BLOCK
+    }
+
+    /**
+     * Which limit of the offline cache made it discard an event.
+     *
+     * @see #setStorageLimits(int, long, long)
+     */
+    public enum EvictionCause {
+        /** The cache held more events than allowed. */
+        MAX_EVENTS,
+        /** The cached events took up more space than allowed. */
+        MAX_BYTES,
+        /** The event was older than allowed. */
+        MAX_AGE
+    }
+
     private Sentry() {
     }
 
@@ -128,34 +206,149 @@ public class Sentry {
 
         sentry.baseUrl = uri.getScheme() + "://" + uri.getHost() + port;
         sentry.dsn = uri;
-        sentry.appInfo = AppInfo.Read(sentry.context);
+        sentry.packageName = sentry.context.getPackageName();
         sentry.verifySsl = getVerifySsl(dsn);
-        sentry.contexts = readContexts(sentry.context, sentry.appInfo);
-        sentry.executor = fixedQueueDiscardingExecutor(MAX_QUEUE_LENGTH);
+        sentry.readContextsInBackground();
+        sentry.handler = new Handler(Looper.getMainLooper());
+        sentry.replaceExecutor();
+        sentry.transport = createTransport(sentry.baseUrl, uri, sentry.verifySsl);
+        if (sentry.transport != null) {
+            sentry.transport.setCompress(sentry.compressionEnabled);
+        }
+        if (sentry.connectivity == null) {
+            sentry.connectivity = new ConnectivityMonitor(sentry.context, sentry.handler, new Runnable() {
+                @Override
+                public void run() {
+                    log("Back online, sending cached events");
+                    sendAllCachedCapturedEvents();
+                }
+            }, ConnectivityMonitor.DEFAULT_DEBOUNCE_MILLIS);
+            sentry.connectivity.start();
+        }
+        synchronized (sentry) {
+            if (sentry.persistBreadcrumbs && sentry.breadcrumbs.log == null) {
+                sentry.openBreadcrumbLog();
+            }
+        }
+        // Mapped ahead of any crash, so that a crash never has to open the storage.
+        sentry.background.execute(new Runnable() {
+            @Override
+            public void run() {
+                sentry.crashSlot();
+            }
+        });
 
         if (setupUncaughtExceptionHandler) {
             sentry.setupUncaughtExceptionHandler();
         }
     }
 
-    private static Executor fixedQueueDiscardingExecutor(int queueSize) {
-        // Name our threads so that it is easy for app developers to see who is creating threads.
-        final ThreadFactory threadFactory = new ThreadFactory() {
+    private void readContextsInBackground() {
+        synchronized (contextsLock) {
+            contexts = null;
+        }
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                contexts();
+            }
+        });
+        if (!trackingConfiguration && Build.VERSION.SDK_INT >= 14) {
+            trackingConfiguration = true;
+            // Orientation is the only part of the contexts that changes while the app runs.
+            context.registerComponentCallbacks(new ComponentCallbacks() {
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                    synchronized (contextsLock) {
+                        if (contexts != null) {
+                            contexts = contexts.withOrientation(newConfig.orientation);
+                        }
+                    }
+                }
+
+                @Override
+                public void onLowMemory() {
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the device contexts, reading them now if the background read hasn't finished yet.
+     */
+    DeviceContexts contexts() {
+        DeviceContexts snapshot = contexts;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (contextsLock) {
+            if (contexts == null && context != null) {
+                contexts = DeviceContexts.read(context);
+            }
+            return contexts != null ? contexts : DeviceContexts.EMPTY;
+        }
+    }
+
+    /**
+     * @return the crash slot, mapping it now if the background open hasn't run yet, or null if
+     * it can't be mapped.
+     */
+    CrashSlot crashSlot() {
+        CrashSlot slot = crashSlot;
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (crashSlotLock) {
+            if (crashSlot == null && context != null) {
+                crashSlot = CrashSlot.open(
+                    new File(context.getFilesDir(), InternalStorage.CRASH_SLOT_NAME), CrashSlot.DEFAULT_SIZE);
+            }
+            return crashSlot;
+        }
+    }
+
+    // Name our threads so that it is easy for app developers to see who is creating threads.
+    private static ThreadFactory namedThreadFactory(final String format) {
+        return new ThreadFactory() {
             private final AtomicLong count = new AtomicLong();
 
             @Override
             public Thread newThread(Runnable runnable) {
                 final Thread thread = new Thread(runnable);
-                thread.setName(String.format(Locale.US, "Sentry HTTP Thread %d", count.incrementAndGet()));
+                thread.setName(String.format(Locale.US, format, count.incrementAndGet()));
                 return thread;
             }
         };
+    }
+
+    private synchronized void replaceExecutor() {
+        final DeliveryExecutor previous = executor;
+        executor = new DeliveryExecutor(deliveryWorkers, deliveryQueueSize, overflowPolicy, blockTimeoutMillis,
+            namedThreadFactory("Sentry HTTP Thread %d"), new DeliveryExecutor.Spiller() {
+                @Override
+                public boolean spill(Runnable task) {
+                    if (!(task instanceof Poster)) {
+                        return false;
+                    }
+                    InternalStorage.getInstance().addRequest(((Poster) task).request);
+                    return true;
+                }
+            }, metrics.dropped, metrics.spilled);
+        if (previous != null) {
+            // Already queued events still go out on the old workers.
+            previous.shutdown();
+        }
+    }
 
-        return new ThreadPoolExecutor(
-            0, 1, // Keep 0 threads alive. Max pool size is 1.
-            60, SECONDS, // Kill unused threads after this length.
-            new ArrayBlockingQueue<Runnable>(queueSize),
-            threadFactory, new ThreadPoolExecutor.DiscardPolicy()); // Discard exceptions
+    private static HttpTransport createTransport(String baseUrl, Uri dsn, boolean verifySsl) {
+        try {
+            final int projectId = Integer.parseInt(getProjectId(dsn));
+            final URL storeUrl = new URL(baseUrl + "/api/" + projectId + "/store/");
+            return new HttpTransport(storeUrl, createXSentryAuthHeader(dsn), verifySsl);
+        } catch (Exception e) {
+            Log.e(TAG, "Invalid DSN " + dsn, e);
+            return null;
+        }
     }
 
     private static boolean getVerifySsl(String dsn) {
@@ -180,7 +373,7 @@ public class Sentry {
         if (!(currentHandler instanceof SentryUncaughtExceptionHandler)) {
             // Register default exceptions handler
             Thread.setDefaultUncaughtExceptionHandler(
-                new SentryUncaughtExceptionHandler(currentHandler, InternalStorage.getInstance()));
+                new SentryUncaughtExceptionHandler(currentHandler));
         }
 
         sendAllCachedCapturedEvents();
@@ -210,11 +403,62 @@ public class Sentry {
         return path.substring(path.lastIndexOf("/") + 1);
     }
 
+    /**
+     * Send the events that were stored while offline. Returns straight away: the stored events
+     * are read and queued for sending in the background, a few at a time.
+     */
     public static void sendAllCachedCapturedEvents() {
-        List<SentryEventRequest> unsentRequests = InternalStorage.getInstance().getUnsentRequests();
-        log("Sending up " + unsentRequests.size() + " cached response(s)");
-        for (SentryEventRequest request : unsentRequests) {
-            Sentry.doCaptureEventPost(request);
+        final Sentry sentry = Sentry.getInstance();
+        if (sentry.rateLimiter.isLimited(EVENT_CATEGORY, SystemClock.elapsedRealtime())) {
+            log("Sending is suspended, keeping cached events");
+            sentry.scheduleRetry();
+            return;
+        }
+
+        // A request made while a replay is running starts another pass once it's done.
+        if (sentry.replayRequested.compareAndSet(false, true)) {
+            sentry.background.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sentry.replayRequested.set(false);
+                    try {
+                        sentry.replayBacklog();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error sending cached events", e);
+                    }
+                }
+            });
+        }
+    }
+
+    // Runs on the background thread. Opens the storage if nobody has yet, then hands stored events
+    // to the delivery queue in chunks that fit, decoding each one only when it's about to be queued.
+    private void replayBacklog() throws InterruptedException {
+        final InternalStorage storage = InternalStorage.getInstance();
+        final List<UUID> unsent = storage.getUnsentIds();
+        log("Sending up " + unsent.size() + " cached response(s)");
+
+        int next = 0;
+        while (next < unsent.size()) {
+            if (!shouldAttemptPost()) {
+                log("Offline, keeping " + (unsent.size() - next) + " cached event(s)");
+                return;
+            }
+            if (rateLimiter.isLimited(EVENT_CATEGORY, SystemClock.elapsedRealtime())) {
+                scheduleRetry();
+                return;
+            }
+
+            final int room = executor.awaitRoom(REPLAY_WAIT_MILLIS);
+            for (final int end = Math.min(unsent.size(), next + room); next < end; next++) {
+                // Null if it was sent since the replay started.
+                final SentryEventRequest request = storage.getRequest(unsent.get(next));
+                if (request != null) {
+                    replay(request);
+                }
+            }
         }
     }
 
@@ -235,6 +479,427 @@ public class Sentry {
         getInstance().breadcrumbs.setMaxBreadcrumbs(maxBreadcrumbs);
     }
 
+    /**
+     * Also keep breadcrumbs in a memory-mapped file, so they outlive the process. If the app
+     * was then killed while in the foreground without the crash being caught (a native crash,
+     * an ANR, the out-of-memory killer), the next launch sends a "Previous session terminated
+     * abnormally" event with the breadcrumbs leading up to it. Off by default.
+     * <p>
+     * Call this before {@link #init(Context, String)}, from Application.onCreate, so that the
+     * whole session is covered. Detecting the foreground needs Android 4.0 (API 14).
+     *
+     * @param enabled true to keep breadcrumbs across process death.
+     */
+    public static void setPersistentBreadcrumbs(boolean enabled) {
+        final Sentry sentry = getInstance();
+        synchronized (sentry) {
+            sentry.persistBreadcrumbs = enabled;
+            final BreadcrumbLog log = sentry.breadcrumbs.log;
+            if (!enabled) {
+                if (log != null) {
+                    sentry.breadcrumbs.log = null;
+                    log.reset();
+                }
+            } else if (sentry.context != null && log == null) {
+                sentry.openBreadcrumbLog();
+            }
+        }
+    }
+
+    private void openBreadcrumbLog() {
+        final BreadcrumbLog log = BreadcrumbLog.open(new File(context.getFilesDir(), BREADCRUMB_LOG_NAME));
+        if (log == null) {
+            return;
+        }
+
+        final boolean abnormal = log.state() == BreadcrumbLog.STATE_FOREGROUND;
+        final List<String> previous = abnormal ? log.recover() : Collections.<String>emptyList();
+        log.reset();
+        log.setState(trackForeground(log) ? BreadcrumbLog.STATE_BACKGROUND : BreadcrumbLog.STATE_UNKNOWN);
+        breadcrumbs.log = log;
+
+        if (abnormal) {
+            // Building and maybe storing the event is too slow for the thread calling init.
+            background.execute(new Runnable() {
+                @Override
+                public void run() {
+                    captureAbnormalTermination(previous);
+                }
+            });
+        }
+    }
+
+    private void captureAbnormalTermination(List<String> previous) {
+        final JSONArray crumbs = new JSONArray();
+        final int max = breadcrumbs.maxBreadcrumbs.get();
+        for (int i = Math.max(0, previous.size() - max); i < previous.size(); i++) {
+            try {
+                crumbs.put(new JSONObject(previous.get(i)));
+            } catch (JSONException e) {
+                Log.w(TAG, "Skipping unreadable breadcrumb", e);
+            }
+        }
+
+        final SentryEventBuilder builder = new SentryEventBuilder()
+            .setMessage("Previous session terminated abnormally")
+            .setLevel(SentryEventLevel.ERROR);
+        builder.event.put("breadcrumbs", crumbs);
+        captureEvent(builder);
+    }
+
+    // Keep the log's state in step with whether any activity is visible, for as long as it's in use.
+    private boolean trackForeground(final BreadcrumbLog log) {
+        if (Build.VERSION.SDK_INT < 14 || !(context instanceof Application)) {
+            return false;
+        }
+        ((Application) context).registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            private int started;
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+                if (started++ == 0 && breadcrumbs.log == log && log.state() != BreadcrumbLog.STATE_CRASHED) {
+                    log.setState(BreadcrumbLog.STATE_FOREGROUND);
+                }
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+                if (--started == 0 && breadcrumbs.log == log && log.state() != BreadcrumbLog.STATE_CRASHED) {
+                    log.setState(BreadcrumbLog.STATE_BACKGROUND);
+                }
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Configure how captured events are handed to the network.
+     *
+     * @param workers            number of threads sending events at the same time.
+     * @param queueSize          number of events that can wait for a free thread.
+     * @param policy             what to do with an event when the queue is full.
+     * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits for room in the queue.
+     */
+    public static void setDeliveryExecutor(int workers, int queueSize, OverflowPolicy policy, long blockTimeoutMillis) {
+        final Sentry sentry = getInstance();
+        synchronized (sentry) {
+            sentry.deliveryWorkers = Math.max(1, workers);
+            sentry.deliveryQueueSize = Math.max(1, queueSize);
+            sentry.overflowPolicy = policy == null ? OverflowPolicy.SPILL_TO_DISK : policy;
+            sentry.blockTimeoutMillis = Math.max(0, blockTimeoutMillis);
+            if (sentry.executor != null) {
+                sentry.replaceExecutor();
+            }
+        }
+    }
+
+    /**
+     * @return the number of events that were discarded because the delivery queue was full.
+     */
+    public static long getDroppedEventCount() {
+        return getInstance().metrics.dropped.get();
+    }
+
+    /**
+     * @return the number of events that were saved to the offline cache because the delivery
+     * queue was full.
+     */
+    public static long getSpilledEventCount() {
+        return getInstance().metrics.spilled.get();
+    }
+
+    /**
+     * Cap the offline cache. When it's over a limit, events older than the maximum age go
+     * first, then the oldest events of the lowest level: DEBUG before INFO, and so on up to
+     * FATAL, which is only discarded when there is nothing else left. A value of 0 or less
+     * removes that limit.
+     * <p>
+     * By default, the cache holds up to 1000 events and 10MB, for up to 30 days.
+     *
+     * @param maxEvents    the maximum number of cached events.
+     * @param maxBytes     the maximum combined size of the cached events.
+     * @param maxAgeMillis how long an event is kept.
+     */
+    public static void setStorageLimits(final int maxEvents, final long maxBytes, final long maxAgeMillis) {
+        final Sentry sentry = getInstance();
+        sentry.maxStoredEvents = maxEvents;
+        sentry.maxStoredBytes = maxBytes;
+        sentry.maxStoredAgeMillis = maxAgeMillis;
+        if (sentry.context != null) {
+            // Opening the storage may take a while, keep it off the calling thread.
+            sentry.background.execute(new Runnable() {
+                @Override
+                public void run() {
+                    InternalStorage.getInstance().setLimits(maxEvents, maxBytes, maxAgeMillis);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param listener told about every event the offline cache discards to stay within its
+     *                 limits, or null.
+     */
+    public static void setStorageEvictionListener(StorageEvictionListener listener) {
+        getInstance().evictionListener = listener;
+    }
+
+    /**
+     * @return the number of events the offline cache discarded to stay within its limits.
+     */
+    public static long getEvictedEventCount() {
+        return getInstance().metrics.evicted.get();
+    }
+
+    /**
+     * @return a snapshot of what the client has done so far: events captured, sent, dropped and
+     * cached, and how long serializing and sending took.
+     */
+    public static Stats getStats() {
+        return getInstance().metrics.snapshot();
+    }
+
+    /**
+     * Hand a {@link Stats} snapshot to a listener at a fixed interval, for exporting to your
+     * own monitoring.
+     *
+     * @param listener       the listener, or null to stop.
+     * @param intervalMillis time between snapshots.
+     */
+    public static void setStatsListener(final StatsListener listener, long intervalMillis) {
+        final Sentry sentry = getInstance();
+        synchronized (sentry) {
+            if (sentry.statsExporter != null) {
+                sentry.statsExporter.shutdownNow();
+                sentry.statsExporter = null;
+            }
+            if (listener == null) {
+                return;
+            }
+            sentry.statsExporter = new ScheduledThreadPoolExecutor(1, namedThreadFactory("Sentry Stats Thread %d"));
+            sentry.statsExporter.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        listener.onStats(getStats());
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error in stats listener", e);
+                    }
+                }
+            }, intervalMillis, Math.max(1, intervalMillis), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void onEventEvicted(SentryEventLevel level, EvictionCause cause) {
+        metrics.evicted.incrementAndGet();
+        final StorageEvictionListener listener = evictionListener;
+        if (listener != null) {
+            try {
+                listener.onEventEvicted(level, cause);
+            } catch (Exception e) {
+                Log.e(TAG, "Error in storage eviction listener", e);
+            }
+        }
+    }
+
+    /**
+     * Build and send events on a background thread. The capturing thread then only records the
+     * event's fields and the current breadcrumbs, which makes capturing on the main thread
+     * cheap. Off by default.
+     * <p>
+     * With this on, the {@link SentryEventCaptureListener} is called on the background thread,
+     * and a {@link SentryEventBuilder} must not be changed after it has been captured.
+     *
+     * @param enabled true to build events in the background.
+     */
+    public static void setAsyncCapture(boolean enabled) {
+        final Sentry sentry = getInstance();
+        synchronized (sentry) {
+            final ThreadPoolExecutor previous = sentry.capturePipeline;
+            if (enabled && previous == null) {
+                sentry.capturePipeline = new ThreadPoolExecutor(
+                    0, 1,
+                    60, SECONDS,
+                    new ArrayBlockingQueue<Runnable>(MAX_QUEUE_LENGTH),
+                    namedThreadFactory("Sentry Capture Thread %d"),
+                    CAPTURE_ON_CALLER);
+            } else if (!enabled && previous != null) {
+                // Captures already queued still run; one racing the switch is rejected by the
+                // shut down pipeline and so runs on its caller.
+                sentry.capturePipeline = null;
+                previous.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Send only a fraction of events. Rates are between 0 (send nothing) and 1 (send
+     * everything, the default). Events are dropped before breadcrumbs, contexts or the capture
+     * listener are applied, so a dropped event costs almost nothing.
+     * <p>
+     * The most specific rate wins: a tag rate over a logger rate, a logger rate over a level
+     * rate, and a level rate over this one.
+     *
+     * @param rate the fraction of events to send.
+     */
+    public static void setSampleRate(double rate) {
+        final Sentry sentry = getInstance();
+        synchronized (sentry) {
+            sentry.sampler = sentry.sampler.withDefaultRate(rate);
+        }
+    }
+
+    /**
+     * @param level the level the rate applies to.
+     * @param rate  the fraction of events with this level to send.
+     * @see #setSampleRate(double)
+     */
+    public static void setSampleRate(SentryEventLevel level, double rate) {
+        final Sentry sentry = getInstance();
+        synchronized (sentry) {
+            sentry.sampler = sentry.sampler.withLevelRate(level, rate);
+        }
+    }
+
+    /**
+     * @param logger the logger name the rate applies to.
+     * @param rate   the fraction of events from this logger to send.
+     * @see #setSampleRate(double)
+     */
+    public static void setLoggerSampleRate(String logger, double rate) {
+        final Sentry sentry = getInstance();
+        synchronized (sentry) {
+            sentry.sampler = sentry.sampler.withLoggerRate(logger, rate);
+        }
+    }
+
+    /**
+     * @param key   the tag the rate applies to.
+     * @param value the value the tag must have.
+     * @param rate  the fraction of events with this tag value to send.
+     * @see #setSampleRate(double)
+     */
+    public static void setTagSampleRate(String key, String value, double rate) {
+        final Sentry sentry = getInstance();
+        synchronized (sentry) {
+            sentry.sampler = sentry.sampler.withTagRate(key, value, rate);
+        }
+    }
+
+    /**
+     * Collapse repeats of the same event. The first occurrence of an event is sent, and repeats
+     * within the window are only counted. When the window closes, the last repeat is sent with
+     * an "occurrences" extra holding the number of repeats. Off by default.
+     *
+     * @param windowMillis    how long to suppress repeats for, or 0 to send every event.
+     * @param maxFingerprints how many distinct recent events to remember.
+     */
+    public static void setDeduplication(long windowMillis, int maxFingerprints) {
+        final Sentry sentry = getInstance();
+        final EventAggregator<SentryEventBuilder> previous = sentry.aggregator;
+        sentry.aggregator = windowMillis > 0 && maxFingerprints > 0
+            ? new EventAggregator<SentryEventBuilder>(windowMillis, maxFingerprints)
+            : null;
+        if (previous != null) {
+            // Repeats counted under the old window are still owed a summary.
+            sentry.background.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sentry.sendSummaries(previous.drain());
+                }
+            });
+        }
+    }
+
+    /**
+     * Gzip event payloads before sending them. Events with many breadcrumbs or long stack traces
+     * compress very well, which matters on metered connections. Off by default.
+     *
+     * @param enabled true to send events with `Content-Encoding: gzip`.
+     */
+    public static void setCompressionEnabled(boolean enabled) {
+        final Sentry sentry = getInstance();
+        sentry.compressionEnabled = enabled;
+        if (sentry.transport != null) {
+            sentry.transport.setCompress(enabled);
+        }
+    }
+
+    /**
+     * @return the number of bytes that compression has saved since the app started.
+     */
+    public static long getBytesSavedByCompression() {
+        final HttpTransport transport = getInstance().transport;
+        return transport == null ? 0 : transport.bytesSaved();
+    }
+
+    /**
+     * Treat classes in this package, and its sub-packages, as part of the app when grouping
+     * stack frames, even if the package is excluded. For example, an app published under
+     * `com.google.android.apps.example` would include that package.
+     *
+     * @param packagePrefix a package name such as `com.example.app`.
+     */
+    public static void addInAppInclude(String packagePrefix) {
+        final Sentry sentry = getInstance();
+        synchronized (sentry) {
+            sentry.frameClassifier = sentry.frameClassifier.withInclude(packagePrefix);
+            sentry.frameCache = new FrameCache(sentry.frameClassifier);
+        }
+    }
+
+    /**
+     * Treat classes in this package, and its sub-packages, as library code when grouping stack
+     * frames. The Java, Android and Dalvik system packages are excluded by default.
+     *
+     * @param packagePrefix a package name such as `com.squareup.okhttp`.
+     */
+    public static void addInAppExclude(String packagePrefix) {
+        final Sentry sentry = getInstance();
+        synchronized (sentry) {
+            sentry.frameClassifier = sentry.frameClassifier.withExclude(packagePrefix);
+            sentry.frameCache = new FrameCache(sentry.frameClassifier);
+        }
+    }
+
+    /**
+     * Bound how much of a throwable goes into an event. Deep recursion, long cause chains and
+     * causes that point back at each other are all cut down to size, with a placeholder frame
+     * showing how many frames were left out.
+     * <p>
+     * By default, up to 10 throwables of a cause chain and 250 frames of each stack trace are
+     * kept, and recursion is folded.
+     *
+     * @param maxCauses     the most throwables to take from a cause chain, or 0 for no limit.
+     * @param maxFrames     the most frames to keep per stack trace, or 0 for no limit. The
+     *                      innermost and outermost frames are kept.
+     * @param foldRecursion true to keep only the first of a run of frames that repeats three
+     *                      or more times in a row.
+     */
+    public static void setExceptionLimits(int maxCauses, int maxFrames, boolean foldRecursion) {
+        getInstance().exceptionLimits = new ExceptionLimits(maxCauses, maxFrames, foldRecursion);
+    }
+
     public static void captureMessage(String message) {
         Sentry.captureMessage(message, SentryEventLevel.INFO);
     }
@@ -259,157 +924,319 @@ public class Sentry {
     }
 
     public static void captureException(Throwable t, String message, SentryEventLevel level) {
-        String culprit = getCause(t, t.getMessage());
+        final SentryEventBuilder builder = new SentryEventBuilder().setException(t);
 
-        Sentry.captureEvent(new SentryEventBuilder()
+        Sentry.captureEvent(builder
             .setMessage(message)
-            .setCulprit(culprit)
+            .setCulprit(getCause(t, t.getMessage()))
             .setLevel(level)
-            .setException(t)
         );
 
     }
 
     private static String getCause(Throwable t, String culprit) {
+        return getCause(t.getStackTrace(), Sentry.getInstance().packageName, culprit);
+    }
 
-        final String packageName = Sentry.getInstance().appInfo.name;
-
-        for (StackTraceElement stackTrace : t.getStackTrace()) {
-            if (stackTrace.toString().contains(packageName)) {
-                return stackTrace.toString();
+    /**
+     * @return the first frame whose class is in the app's package, or the given culprit if there
+     * is none. Class names are compared in place, so only the chosen frame is formatted.
+     */
+    static String getCause(StackTraceElement[] frames, String packageName, String culprit) {
+        if (packageName.length() == 0) {
+            return culprit;
+        }
+        for (StackTraceElement frame : frames) {
+            if (frame.getClassName().contains(packageName)) {
+                return frame.toString();
             }
         }
-
         return culprit;
     }
 
     public static void captureEvent(SentryEventBuilder builder) {
         final Sentry sentry = Sentry.getInstance();
-        final SentryEventRequest request;
-        builder.event.put("contexts", sentry.contexts);
-        addDefaultRelease(builder, sentry.appInfo);
-        builder.event.put("breadcrumbs", Sentry.getInstance().breadcrumbs.current());
-        if (sentry.captureListener != null) {
-
-            builder = sentry.captureListener.beforeCapture(builder);
-            if (builder == null) {
-                Log.e(Sentry.TAG, "SentryEventBuilder in captureEvent is null");
+        sentry.metrics.captured.incrementAndGet();
+
+        // Before anything expensive, so that a dropped event or an error storm costs next to nothing.
+        final Sampler sampler = sentry.sampler;
+        final EventAggregator<SentryEventBuilder> aggregator = sentry.aggregator;
+        final long fingerprint = sampler.isActive() || aggregator != null
+            ? EventAggregator.fingerprint(builder.event)
+            : 0;
+        if (sampler.isActive() && !sampler.sample(builder.event, fingerprint)) {
+            log("Event not sampled");
+            sentry.metrics.sampledOut.incrementAndGet();
+            return;
+        }
+        if (aggregator != null) {
+            final int occurrences = aggregator.record(fingerprint, builder, SystemClock.elapsedRealtime());
+            if (occurrences == EventAggregator.NOT_SENT) {
+                log("Dropping repeated event");
+                sentry.metrics.deduplicated.incrementAndGet();
+                sentry.scheduleSummaries();
                 return;
             }
+            if (occurrences > 1) {
+                builder.addExtra(EventAggregator.OCCURRENCES_EXTRA, String.valueOf(occurrences));
+            }
         }
 
-        request = new SentryEventRequest(builder);
-
-        log("Request - " + request.requestData);
-
-        doCaptureEventPost(request);
-    }
-
-    private boolean shouldAttemptPost() {
-        PackageManager pm = context.getPackageManager();
-        int hasPerm = pm.checkPermission(permission.ACCESS_NETWORK_STATE, context.getPackageName());
-        if (hasPerm != PackageManager.PERMISSION_GRANTED) {
-            return false;
+        final CaptureTask task = sentry.new CaptureTask(builder, sentry.breadcrumbs.snapshot());
+        final Executor pipeline = sentry.capturePipeline;
+        if (pipeline != null) {
+            pipeline.execute(task);
+        } else {
+            task.run();
         }
-
-        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
-        return activeNetworkInfo != null && activeNetworkInfo.isConnected();
     }
 
-    private static void ignoreSslErrors(HttpURLConnection connection) {
-        try {
-
-            if (!(connection instanceof HttpsURLConnection)) {
-                return;
+    /**
+     * Everything that happens to an event after it has been captured: enrichment, the capture
+     * listener, serialization and delivery. Holds the breadcrumbs as they were at capture time,
+     * so it can run later on the capture pipeline.
+     */
+    private final class CaptureTask implements Runnable {
+        final SentryEventBuilder builder;
+        final List<Breadcrumb> breadcrumbs;
+
+        CaptureTask(SentryEventBuilder builder, List<Breadcrumb> breadcrumbs) {
+            this.builder = builder;
+            this.breadcrumbs = breadcrumbs;
+        }
+
+        SentryEventRequest build() {
+            SentryEventBuilder builder = this.builder;
+            final DeviceContexts deviceContexts = contexts();
+            builder.event.put("contexts", deviceContexts);
+            addDefaultRelease(builder, deviceContexts.appInfo);
+            if (!builder.event.containsKey("breadcrumbs")) {
+                builder.event.put("breadcrumbs", Breadcrumbs.toJson(breadcrumbs));
             }
+            if (captureListener != null) {
 
-            final HttpsURLConnection https = (HttpsURLConnection) connection;
-
-            final X509TrustManager x509TrustManager = new X509TrustManager() {
-                @Override
-                public void checkClientTrusted(X509Certificate[] chain,
-                                               String authType) throws CertificateException {
+                builder = captureListener.beforeCapture(builder);
+                if (builder == null) {
+                    Log.e(Sentry.TAG, "SentryEventBuilder in captureEvent is null");
+                    return null;
                 }
+            }
 
-                @Override
-                public void checkServerTrusted(X509Certificate[] chain,
-                                               String authType) throws CertificateException {
-                }
+            final long start = System.nanoTime();
+            final SentryEventRequest request = new SentryEventRequest(builder);
+            metrics.serializationMicros.record((System.nanoTime() - start) / 1000);
+            return request;
+        }
 
-                @Override
-                public X509Certificate[] getAcceptedIssuers() {
-                    return null;
+        @Override
+        public void run() {
+            try {
+                final SentryEventRequest request = build();
+                if (request == null) {
+                    return;
                 }
-            };
 
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, new TrustManager[]{x509TrustManager}, null);
+                log("Request - " + request.requestData);
 
-            https.setSSLSocketFactory(sslContext.getSocketFactory());
+                doCaptureEventPost(request);
+            } catch (Exception e) {
+                Log.e(TAG, "Error capturing event", e);
+            }
+        }
+    }
 
-            https.setHostnameVerifier(new HostnameVerifier() {
-                public boolean verify(String host, SSLSession sess) {
-                    return true;
+    // Events still waiting on the capture pipeline would die with the process, so build them
+    // on the calling thread.
+    private void buildPendingCaptures(List<SentryEventRequest> requests) {
+        final ThreadPoolExecutor pipeline = capturePipeline;
+        if (pipeline == null) {
+            return;
+        }
+        final List<Runnable> pending = new ArrayList<>();
+        pipeline.getQueue().drainTo(pending);
+        for (Runnable task : pending) {
+            try {
+                final SentryEventRequest request = ((CaptureTask) task).build();
+                if (request != null) {
+                    requests.add(request);
                 }
-            });
+            } catch (Exception e) {
+                Log.e(TAG, "Error storing pending event", e);
+            }
+        }
+    }
 
-        } catch (Exception ex) {
-            Log.w(TAG, "Error bypassing SSL validation", ex);
+    // Save events while the app is going down: into the crash slot as far as they fit, and the
+    // rest into the storage only if it's open already. Opening it reads the whole journal,
+    // which a crash can't wait for.
+    private void saveOnCrash(List<SentryEventRequest> requests) {
+        int next = 0;
+        // A small file of fixed size, so mapping it here is cheap if the background open hasn't run.
+        final CrashSlot slot = crashSlot();
+        if (slot != null) {
+            final int room = slot.room();
+            final ByteArrayOutputStream records = new ByteArrayOutputStream();
+            try {
+                while (next < requests.size()) {
+                    final ByteArrayOutputStream record = new ByteArrayOutputStream();
+                    EventRecord.write(new DataOutputStream(record), requests.get(next));
+                    if (records.size() + record.size() > room) {
+                        break;
+                    }
+                    record.writeTo(records);
+                    next++;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error saving crash", e);
+            }
+            if (next > 0 && slot.write(records.toByteArray())) {
+                log("Saved " + next + " event(s) to the crash slot");
+            } else {
+                next = 0;
+            }
+        }
+
+        final InternalStorage storage = InternalStorage.getIfOpen();
+        if (storage == null) {
+            if (next < requests.size()) {
+                Log.w(TAG, "No room to save " + (requests.size() - next) + " event(s) while crashing");
+            }
+            return;
+        }
+        for (; next < requests.size(); next++) {
+            storage.addRequest(requests.get(next));
         }
     }
 
-    private Runnable makePoster(final SentryEventRequest request) {
+    private boolean shouldAttemptPost() {
+        final ConnectivityMonitor connectivity = this.connectivity;
+        return connectivity != null && connectivity.isConnected();
+    }
 
-        return new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    int projectId = Integer.parseInt(getProjectId(dsn));
-                    URL url = new URL(baseUrl + "/api/" + projectId + "/store/");
+    private Poster makePoster(final SentryEventRequest request) {
+        return new Poster(request, false);
+    }
 
-                    final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    private final class Poster implements Runnable {
+        final SentryEventRequest request;
+        // Read back from storage by a replay, which may have queued it more than once.
+        final boolean stored;
 
-                    if (!verifySsl) {
-                        ignoreSslErrors(conn);
-                    }
+        Poster(SentryEventRequest request, boolean stored) {
+            this.request = request;
+            this.stored = stored;
+        }
 
-                    final int timeoutMillis = (int)SECONDS.toMillis(10);
+        @Override
+        public void run() {
+            if (stored && !InternalStorage.getInstance().contains(request.uuid)) {
+                // Another copy was sent already.
+                return;
+            }
+            post(request);
+        }
+    }
 
-                    conn.setConnectTimeout(timeoutMillis);
-                    conn.setReadTimeout(timeoutMillis);
-                    conn.setDoOutput(true);
-                    conn.setDoInput(false);
-                    conn.setRequestMethod("POST");
-                    conn.setRequestProperty("X-Sentry-Auth", createXSentryAuthHeader(dsn));
-                    conn.setRequestProperty("User-Agent", "sentry-android/" + BuildConfig.SENTRY_ANDROID_VERSION);
-                    conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+    private void post(SentryEventRequest request) {
+        if (rateLimiter.isLimited(EVENT_CATEGORY, SystemClock.elapsedRealtime())) {
+            // Limited while this event was queued.
+            suspend(request);
+            return;
+        }
 
-                    OutputStream os = conn.getOutputStream();
-                    os.write(request.requestData.getBytes("UTF-8"));
-                    os.close();
+        final long start = SystemClock.elapsedRealtime();
+        try {
+            final Transport.Response response = transport.send(request.requestData);
+            metrics.deliveryMillis.record(SystemClock.elapsedRealtime() - start);
+            rateLimiter.onResponse(response, SystemClock.elapsedRealtime());
+            final boolean success = response.status == 200;
+
+            log("SendEvent status=" + response.status);
+
+            if (success) {
+                metrics.sent.incrementAndGet();
+                InternalStorage.getInstance().removeBuilder(request);
+            } else if (rateLimiter.isLimited(EVENT_CATEGORY, SystemClock.elapsedRealtime())) {
+                metrics.failed.incrementAndGet();
+                suspend(request);
+            } else {
+                metrics.failed.incrementAndGet();
+                metrics.retried.incrementAndGet();
+                InternalStorage.getInstance().addRequest(request);
+            }
 
-                    final int status = conn.getResponseCode();
-                    final boolean success = status == 200;
+        } catch (Exception e) {
+            Log.e(TAG, "Error sending event", e);
+            metrics.deliveryMillis.record(SystemClock.elapsedRealtime() - start);
+            metrics.failed.incrementAndGet();
+            rateLimiter.onFailure(SystemClock.elapsedRealtime());
+            suspend(request);
+        }
+    }
 
-                    conn.disconnect();
+    // Keep the event on disk until the server lets us send again.
+    private void suspend(SentryEventRequest request) {
+        metrics.retried.incrementAndGet();
+        InternalStorage.getInstance().addRequest(request);
+        scheduleRetry();
+    }
 
-                    log("SendEvent status=" + status);
+    private void scheduleRetry() {
+        final Handler handler = this.handler;
+        if (handler == null || !retryScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        final long delay = rateLimiter.retryAt(EVENT_CATEGORY) - SystemClock.elapsedRealtime();
+        log("Retrying cached events in " + delay + "ms");
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                retryScheduled.set(false);
+                sendAllCachedCapturedEvents();
+            }
+        }, Math.max(0, delay));
+    }
 
-                    if (success) {
-                        InternalStorage.getInstance().removeBuilder(request);
-                    } else {
-                        InternalStorage.getInstance().addRequest(request);
+    // Send the summaries of deduplication windows as they close. The handler only keeps time:
+    // building the events happens on the background thread, away from the main thread.
+    private void scheduleSummaries() {
+        final Handler handler = this.handler;
+        final EventAggregator<SentryEventBuilder> aggregator = this.aggregator;
+        if (handler == null || aggregator == null || !summariesScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        final long delay = aggregator.nextClose() - SystemClock.elapsedRealtime();
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                background.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        summariesScheduled.set(false);
+                        final EventAggregator<SentryEventBuilder> current = Sentry.this.aggregator;
+                        if (current != null) {
+                            sendSummaries(current.closeWindows(SystemClock.elapsedRealtime()));
+                            if (current.nextClose() >= 0) {
+                                scheduleSummaries();
+                            }
+                        }
                     }
-
-                } catch (Exception e) {
-                    Log.e(TAG, "Error sending event", e);
-                }
+                });
             }
-        };
+        }, Math.max(0, delay));
+    }
 
+    private void sendSummaries(List<EventAggregator.Summary<SentryEventBuilder>> summaries) {
+        for (EventAggregator.Summary<SentryEventBuilder> summary : summaries) {
+            summary.event.addExtra(EventAggregator.OCCURRENCES_EXTRA, String.valueOf(summary.occurrences));
+            new CaptureTask(summary.event, breadcrumbs.snapshot()).run();
+        }
     }
 
+    // Like doCaptureEventPost, for a stored event once the replay has checked it may send.
+    private void replay(SentryEventRequest request) {
+        executor.execute(new Poster(request, true));
+    }
 
     private static void doCaptureEventPost(final SentryEventRequest request) {
         final Sentry sentry = Sentry.getInstance();
@@ -419,117 +1246,296 @@ public class Sentry {
             return;
         }
 
+        if (sentry.rateLimiter.isLimited(EVENT_CATEGORY, SystemClock.elapsedRealtime())) {
+            sentry.suspend(request);
+            return;
+        }
+
         sentry.executor.execute(sentry.makePoster(request));
     }
 
     private static class SentryUncaughtExceptionHandler implements UncaughtExceptionHandler {
 
-        private final InternalStorage storage;
+        // How long saving the crash may hold up the default handler, which ends the process.
+        private static final long CRASH_BUDGET_MILLIS = 1500;
+
         private final UncaughtExceptionHandler defaultExceptionHandler;
 
         // constructor
-        public SentryUncaughtExceptionHandler(UncaughtExceptionHandler pDefaultExceptionHandler, InternalStorage storage) {
+        public SentryUncaughtExceptionHandler(UncaughtExceptionHandler pDefaultExceptionHandler) {
             defaultExceptionHandler = pDefaultExceptionHandler;
-            this.storage = storage;
         }
 
         @Override
-        public void uncaughtException(Thread thread, Throwable e) {
+        public void uncaughtException(Thread thread, final Throwable e) {
+            final Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    trySaveCrash(e);
+                }
+            }, "Sentry Crash Writer");
 
+            try {
+                writer.start();
+            } catch (Throwable startFailed) {
+                // Likely out of memory; do what we can on this thread.
+                trySaveCrash(e);
+            }
+            try {
+                writer.join(CRASH_BUDGET_MILLIS);
+            } catch (InterruptedException ignored) {
+            }
+
+            // Call original handler
+            defaultExceptionHandler.uncaughtException(thread, e);
+        }
+
+        // Anything thrown while saving would be a second uncaught exception, reported in place of
+        // the crash itself.
+        private void trySaveCrash(Throwable e) {
+            try {
+                saveCrash(e);
+            } catch (Throwable t) {
+                Log.e(Sentry.TAG, "Error saving crash", t);
+            }
+        }
+
+        private void saveCrash(Throwable e) {
             final Sentry sentry = Sentry.getInstance();
+            final List<SentryEventRequest> requests = new ArrayList<>();
+
+            // Here you should have a more robust, permanent record of problems
+            final DeviceContexts contexts = sentry.contexts();
+            SentryEventBuilder builder = new SentryEventBuilder(e, SentryEventLevel.FATAL);
+            addDefaultRelease(builder, contexts.appInfo);
+            builder.event.put("breadcrumbs", sentry.breadcrumbs.current());
+
+            if (sentry.captureListener != null) {
+                builder = sentry.captureListener.beforeCapture(builder);
+            }
+
+            if (builder != null) {
+                builder.event.put("contexts", contexts);
+                requests.add(new SentryEventRequest(builder));
+                // The crash carries the breadcrumbs, so the next launch needn't report them again.
+                final BreadcrumbLog log = sentry.breadcrumbs.log;
+                if (log != null) {
+                    log.setState(BreadcrumbLog.STATE_CRASHED);
+                }
+            } else {
+                Log.e(Sentry.TAG, "SentryEventBuilder in uncaughtException is null");
+            }
+
+            sentry.buildPendingCaptures(requests);
+            sentry.saveOnCrash(requests);
+        }
+
+    }
+
+    static class InternalStorage {
+
+        // Pre-journal storage: the whole backlog as one serialized ArrayList.
+        private final static String LEGACY_FILE_NAME = "unsent_requests";
+        private final static String JOURNAL_DIR_NAME = "sentry_journal";
+        final static String CRASH_SLOT_NAME = "sentry_crash";
+
+        // Events are only decoded when they're read, the journal keeps the index of what's unsent.
+        private final EventJournal journal;
+        private final CrashSlot crashSlot;
+
+        // Set once the shared instance is open, for callers that mustn't be the ones opening it.
+        private static volatile InternalStorage opened;
+
+        private static InternalStorage getInstance() {
+            return LazyHolder.instance;
+        }
+
+        /**
+         * @return the shared instance, or null if nothing has opened it yet.
+         */
+        static InternalStorage getIfOpen() {
+            return opened;
+        }
+
+        private static class LazyHolder {
+            private static final InternalStorage instance = new InternalStorage();
+        }
+
+        private InternalStorage() {
+            this(Sentry.getInstance().context.getFilesDir(), Sentry.getInstance().maxStoredEvents,
+                Sentry.getInstance().maxStoredBytes, Sentry.getInstance().maxStoredAgeMillis,
+                Sentry.getInstance().crashSlot());
+            opened = this;
+        }
+
+        InternalStorage(File filesDir) {
+            this(filesDir, DEFAULT_MAX_STORED_EVENTS, DEFAULT_MAX_STORED_BYTES, DEFAULT_MAX_STORED_AGE_MILLIS);
+        }
 
-            // Here you should have a more robust, permanent record of problems
-            SentryEventBuilder builder = new SentryEventBuilder(e, SentryEventLevel.FATAL);
-            addDefaultRelease(builder, sentry.appInfo);
-            builder.event.put("breadcrumbs", sentry.breadcrumbs.current());
+        InternalStorage(File filesDir, int maxEvents, long maxBytes, long maxAgeMillis) {
+            this(filesDir, maxEvents, maxBytes, maxAgeMillis,
+                CrashSlot.open(new File(filesDir, CRASH_SLOT_NAME), CrashSlot.DEFAULT_SIZE));
+        }
 
-            if (sentry.captureListener != null) {
-                builder = sentry.captureListener.beforeCapture(builder);
-            }
+        private InternalStorage(File filesDir, int maxEvents, long maxBytes, long maxAgeMillis, CrashSlot crashSlot) {
+            this.journal = new EventJournal(new File(filesDir, JOURNAL_DIR_NAME));
+            this.journal.setLimits(maxEvents, maxBytes, maxAgeMillis);
+            this.journal.open();
 
-            if (builder != null) {
-                builder.event.put("contexts", sentry.contexts);
-                storage.addRequest(new SentryEventRequest(builder));
-            } else {
-                Log.e(Sentry.TAG, "SentryEventBuilder in uncaughtException is null");
-            }
+            migrateLegacyFile(new File(filesDir, LEGACY_FILE_NAME));
 
-            // Call original handler
-            defaultExceptionHandler.uncaughtException(thread, e);
+            this.crashSlot = crashSlot;
+            ingestCrash();
+            trim();
         }
 
-    }
+        void setLimits(int maxEvents, long maxBytes, long maxAgeMillis) {
+            journal.setLimits(maxEvents, maxBytes, maxAgeMillis);
+            trim();
+        }
 
-    private static class InternalStorage {
+        private void trim() {
+            for (EventJournal.Eviction eviction : journal.trim(System.currentTimeMillis())) {
+                log("Evicted request - " + eviction.uuid + " (" + eviction.cause + ")");
+                Sentry.getInstance().onEventEvicted(levelOf(eviction.priority), eviction.cause);
+            }
+            updateBacklog();
+        }
 
-        private final static String FILE_NAME = "unsent_requests";
-        private final List<SentryEventRequest> unsentRequests;
+        private void updateBacklog() {
+            final Metrics metrics = Sentry.getInstance().metrics;
+            metrics.backlogEvents.set(journal.size());
+            metrics.backlogBytes.set(journal.bytes());
+        }
 
-        private static InternalStorage getInstance() {
-            return LazyHolder.instance;
+        // FATAL is kept longest, DEBUG is evicted first.
+        private static int priorityOf(SentryEventLevel level) {
+            return EventJournal.PRIORITIES - 1 - (level == null ? SentryEventLevel.ERROR : level).ordinal();
         }
 
-        private static class LazyHolder {
-            private static final InternalStorage instance = new InternalStorage();
+        private static SentryEventLevel levelOf(int priority) {
+            return SentryEventLevel.values()[EventJournal.PRIORITIES - 1 - priority];
         }
 
-        private InternalStorage() {
-            Context context = Sentry.getInstance().context;
-            try {
-                File unsetRequestsFile = new File(context.getFilesDir(), FILE_NAME);
-                if (!unsetRequestsFile.exists()) {
-                    writeObject(context, new ArrayList<Sentry.SentryEventRequest>());
+        // Move the events saved by a crash into the journal. They're kept ahead of everything
+        // else, like the crash itself, as they are what the app was doing when it went down.
+        private void ingestCrash() {
+            if (crashSlot == null) {
+                return;
+            }
+            final byte[] payload = crashSlot.read();
+            if (payload != null) {
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                try {
+                    SentryEventRequest request;
+                    while ((request = EventRecord.read(in)) != null) {
+                        store(request, SentryEventLevel.FATAL);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Error loading saved crash", e);
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Error initializing storage", e);
             }
-            this.unsentRequests = this.readObject(context);
+            crashSlot.clear();
         }
 
         /**
-         * @return the unsentRequests
+         * @return every unsent request, decoded. Prefer {@link #getUnsentIds()} and
+         * {@link #getRequest(UUID)} for large backlogs.
          */
         public List<SentryEventRequest> getUnsentRequests() {
-            final List<SentryEventRequest> copy = new ArrayList<>();
-            synchronized (this) {
-                copy.addAll(unsentRequests);
+            final List<SentryEventRequest> requests = new ArrayList<>();
+            for (UUID uuid : getUnsentIds()) {
+                final SentryEventRequest request = getRequest(uuid);
+                if (request != null) {
+                    requests.add(request);
+                }
+            }
+            return requests;
+        }
+
+        boolean contains(UUID uuid) {
+            return journal.contains(uuid);
+        }
+
+        /**
+         * @return the ids of the unsent requests, oldest first.
+         */
+        List<UUID> getUnsentIds() {
+            return journal.pending();
+        }
+
+        /**
+         * @return the unsent request, or null if it was sent in the meantime or is unreadable.
+         * Unreadable requests are dropped.
+         */
+        SentryEventRequest getRequest(UUID uuid) {
+            final byte[] payload = journal.read(uuid);
+            if (payload == null) {
+                return null;
+            }
+            final SentryEventRequest request = decode(uuid, payload);
+            if (request == null) {
+                journal.ack(uuid);
+                updateBacklog();
             }
-            return copy;
+            return request;
         }
 
         public void addRequest(SentryEventRequest request) {
-            synchronized (this) {
-                log("Adding request - " + request.uuid);
-                if (!this.unsentRequests.contains(request)) {
-                    this.unsentRequests.add(request);
-                    this.writeObject(Sentry.getInstance().context, this.unsentRequests);
+            store(request, request.level);
+        }
+
+        private void store(SentryEventRequest request, SentryEventLevel level) {
+            log("Adding request - " + request.uuid);
+            if (!contains(request.uuid)) {
+                final byte[] payload = encode(request);
+                if (payload != null && journal.append(request.uuid, payload, priorityOf(level), System.currentTimeMillis())) {
+                    Sentry.getInstance().metrics.persisted.incrementAndGet();
+                    trim();
                 }
             }
         }
 
         public void removeBuilder(SentryEventRequest request) {
-            synchronized (this) {
-                log("Removing request - " + request.uuid);
-                this.unsentRequests.remove(request);
-                this.writeObject(Sentry.getInstance().context, this.unsentRequests);
+            log("Removing request - " + request.uuid);
+            journal.ack(request.uuid);
+            updateBacklog();
+        }
+
+        // Move anything left in the old single-file store into the journal, then delete it.
+        private void migrateLegacyFile(File legacy) {
+            if (!legacy.exists()) {
+                return;
+            }
+            for (SentryEventRequest request : readLegacyFile(legacy)) {
+                addRequest(request);
+            }
+            if (!legacy.delete()) {
+                Log.w(TAG, "Unable to delete " + LEGACY_FILE_NAME);
             }
         }
 
-        private void writeObject(Context context, List<SentryEventRequest> requests) {
+        private static byte[] encode(SentryEventRequest request) {
             try {
-                FileOutputStream fos = context.openFileOutput(FILE_NAME, Context.MODE_PRIVATE);
-                ObjectOutputStream oos = new ObjectOutputStream(fos);
-                oos.writeObject(requests);
-                oos.close();
-                fos.close();
+                return EventRecord.encode(request);
             } catch (IOException e) {
                 Log.e(TAG, "Error saving to storage", e);
+                return null;
+            }
+        }
+
+        private static SentryEventRequest decode(UUID uuid, byte[] payload) {
+            try {
+                return EventRecord.decode(uuid, payload);
+            } catch (IOException e) {
+                Log.e(TAG, "Error loading from storage", e);
+                return null;
             }
         }
 
-        private List<SentryEventRequest> readObject(Context context) {
+        private List<SentryEventRequest> readLegacyFile(File legacy) {
             try {
-                FileInputStream fis = context.openFileInput(FILE_NAME);
+                FileInputStream fis = new FileInputStream(legacy);
                 ObjectInputStream ois = new ObjectInputStream(fis);
                 List<SentryEventRequest> requests = (ArrayList<SentryEventRequest>) ois.readObject();
                 ois.close();
@@ -548,7 +1554,216 @@ public class Sentry {
 
     }
 
-    private final static class Breadcrumb {
+    public interface StorageEvictionListener {
+
+        /**
+         * Called for every event the offline cache discards, on the thread that stored the event
+         * that made room necessary. That can be the main thread, when an event is captured
+         * offline, or the thread handling a crash, so keep it quick and don't block.
+         *
+         * @param level the event's level, or ERROR if unknown.
+         */
+        void onEventEvicted(SentryEventLevel level, EvictionCause cause);
+
+    }
+
+    public interface StatsListener {
+
+        /**
+         * Called periodically on a background thread, see {@link #setStatsListener(StatsListener, long)}.
+         */
+        void onStats(Stats stats);
+
+    }
+
+    /**
+     * What the client has done since the app started, and what it cost. Counts never go down,
+     * so rates come from the difference between two snapshots.
+     */
+    public static final class Stats {
+        private final long captured;
+        private final long sampledOut;
+        private final long deduplicated;
+        private final long dropped;
+        private final long spilled;
+        private final long persisted;
+        private final long evicted;
+        private final long backlogEvents;
+        private final long backlogBytes;
+        private final long sent;
+        private final long failed;
+        private final long retried;
+        private final Latency serialization;
+        private final Latency delivery;
+
+        Stats(Metrics metrics) {
+            captured = metrics.captured.get();
+            sampledOut = metrics.sampledOut.get();
+            deduplicated = metrics.deduplicated.get();
+            dropped = metrics.dropped.get();
+            spilled = metrics.spilled.get();
+            persisted = metrics.persisted.get();
+            evicted = metrics.evicted.get();
+            backlogEvents = metrics.backlogEvents.get();
+            backlogBytes = metrics.backlogBytes.get();
+            sent = metrics.sent.get();
+            failed = metrics.failed.get();
+            retried = metrics.retried.get();
+            serialization = new Latency(metrics.serializationMicros);
+            delivery = new Latency(metrics.deliveryMillis);
+        }
+
+        /** @return events passed to captureEvent, directly or through the other capture methods. */
+        public long getCapturedCount() {
+            return captured;
+        }
+
+        /** @return events not sent because of the sample rates. */
+        public long getSampledOutCount() {
+            return sampledOut;
+        }
+
+        /** @return events not sent because they repeated an event sent shortly before. */
+        public long getDeduplicatedCount() {
+            return deduplicated;
+        }
+
+        /** @return events discarded because the delivery queue was full. */
+        public long getDroppedCount() {
+            return dropped;
+        }
+
+        /** @return events saved to the offline cache because the delivery queue was full. */
+        public long getSpilledCount() {
+            return spilled;
+        }
+
+        /** @return events written to the offline cache, for any reason. */
+        public long getPersistedCount() {
+            return persisted;
+        }
+
+        /** @return events the offline cache discarded to stay within its limits. */
+        public long getEvictedCount() {
+            return evicted;
+        }
+
+        /** @return events in the offline cache now, once it has been opened. */
+        public long getBacklogCount() {
+            return backlogEvents;
+        }
+
+        /** @return the combined size of the events in the offline cache now. */
+        public long getBacklogBytes() {
+            return backlogBytes;
+        }
+
+        /** @return events the server accepted. */
+        public long getSentCount() {
+            return sent;
+        }
+
+        /** @return attempts to send an event that failed or were refused. */
+        public long getFailedCount() {
+            return failed;
+        }
+
+        /** @return events put back in the offline cache to be sent again later. */
+        public long getRetriedCount() {
+            return retried;
+        }
+
+        /** @return time to turn a captured event into its request body, in microseconds. */
+        public Latency getSerializationMicros() {
+            return serialization;
+        }
+
+        /** @return time to send an event to the server, in milliseconds. */
+        public Latency getDeliveryMillis() {
+            return delivery;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{captured=" + captured + ", sampledOut=" + sampledOut + ", deduplicated=" + deduplicated
+                + ", dropped=" + dropped + ", spilled=" + spilled + ", persisted=" + persisted
+                + ", evicted=" + evicted + ", backlog=" + backlogEvents + "/" + backlogBytes + "B"
+                + ", sent=" + sent + ", failed=" + failed + ", retried=" + retried
+                + ", serializationMicros=" + serialization + ", deliveryMillis=" + delivery + "}";
+        }
+    }
+
+    /**
+     * A latency distribution, counted into fixed buckets.
+     */
+    public static final class Latency {
+        private final long[] bounds;
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Latency(Metrics.Histogram histogram) {
+            bounds = histogram.bounds.clone();
+            counts = histogram.counts();
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+            sum = histogram.sum();
+            max = histogram.max();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return the upper bound of the bucket holding that percentile, or the maximum if lower.
+         */
+        public long getPercentile(double percentile) {
+            final long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(bounds[i], max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return the upper bound of every bucket but the last, which has none.
+         */
+        public long[] getBucketBounds() {
+            return bounds.clone();
+        }
+
+        /**
+         * @return how many values fell in each bucket; one more than there are bounds.
+         */
+        public long[] getBucketCounts() {
+            return counts.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) + ", max=" + max + "}";
+        }
+    }
+
+    final static class Breadcrumb {
 
         enum Type {
 
@@ -570,6 +1785,9 @@ public class Sentry {
         final SentryEventLevel level;
         final Map<String, String> data = new HashMap<>();
 
+        // Position in the Breadcrumbs ring, assigned by push().
+        long sequence = -1;
+
         Breadcrumb(long timestamp, Type type, String message, String category, SentryEventLevel level) {
             this.timestamp = timestamp;
             this.type = type;
@@ -581,34 +1799,65 @@ public class Sentry {
 
     static class Breadcrumbs {
 
+        // The hard upper limit for maxBreadcrumbs.
+        static final int MAX_BREADCRUMBS = 200;
+
+        // Ring capacity: a power of two with some headroom over MAX_BREADCRUMBS, so that a
+        // snapshot can still read its oldest crumbs while writers keep pushing.
+        private static final int CAPACITY = 256;
+        private static final int MASK = CAPACITY - 1;
+
         // The max number of breadcrumbs that will be tracked at any one time.
         final AtomicInteger maxBreadcrumbs = new AtomicInteger(100);
 
-        // Access to this list must be thread-safe.
-        // See GitHub Issue #110
-        // This list is protected by the provided ReadWriteLock.
-        final LinkedList<Breadcrumb> breadcrumbs = new LinkedList<>();
-        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // Lock-free ring buffer, see GitHub Issue #110 for why this must be thread-safe.
+        // Writers claim a sequence number and store their crumb in slot (sequence & MASK).
+        // Readers walk back from the latest sequence and skip any slot whose crumb doesn't
+        // carry the sequence they expect: it is either still being written or already lapped.
+        private final AtomicReferenceArray<Breadcrumb> slots = new AtomicReferenceArray<>(CAPACITY);
+        private final AtomicLong next = new AtomicLong();
+
+        // Crumbs below this sequence were dropped by lowering maxBreadcrumbs.
+        private final AtomicLong floor = new AtomicLong();
+
+        // Optional copy of the trail that survives the process, see setPersistentBreadcrumbs.
+        volatile BreadcrumbLog log;
 
         void push(Breadcrumb b) {
-            try {
-                lock.writeLock().lock();
+            final long sequence = next.getAndIncrement();
+            b.sequence = sequence;
+            slots.set((int) (sequence & MASK), b);
 
-                final int toRemove = breadcrumbs.size() - maxBreadcrumbs.get() + 1;
-                for (int i = 0; i < toRemove; i++) {
-                    breadcrumbs.removeFirst();
+            final BreadcrumbLog log = this.log;
+            if (log != null) {
+                log.append(sequence, toJson(b));
+            }
+        }
+
+        /**
+         * @return the most recent crumbs, oldest first, without blocking writers.
+         */
+        List<Breadcrumb> snapshot() {
+            final long end = next.get();
+            final long start = Math.max(Math.max(0, end - maxBreadcrumbs.get()), floor.get());
+            final List<Breadcrumb> crumbs = new ArrayList<>((int) Math.max(0, end - start));
+            for (long sequence = start; sequence < end; sequence++) {
+                final Breadcrumb b = slots.get((int) (sequence & MASK));
+                if (b != null && b.sequence == sequence) {
+                    crumbs.add(b);
                 }
-                breadcrumbs.add(b);
-            } finally {
-                lock.writeLock().unlock();
             }
+            return crumbs;
         }
 
         JSONArray current() {
+            return toJson(snapshot());
+        }
+
+        static JSONArray toJson(List<Breadcrumb> snapshot) {
             final JSONArray crumbs = new JSONArray();
             try {
-                lock.readLock().lock();
-                for (Breadcrumb breadcrumb : breadcrumbs) {
+                for (Breadcrumb breadcrumb : snapshot) {
                     final JSONObject json = new JSONObject();
                     json.put("timestamp", breadcrumb.timestamp);
                     json.put("type", breadcrumb.type.value);
@@ -620,15 +1869,42 @@ public class Sentry {
                 }
             } catch (Exception e) {
                 Log.e(TAG, "Error serializing breadcrumbs", e);
-            } finally {
-                lock.readLock().unlock();
             }
             return crumbs;
         }
 
+        // The same JSON as toJson(List) produces for one crumb.
+        static String toJson(Breadcrumb breadcrumb) {
+            final StringBuilder out = new StringBuilder(128);
+            final JsonWriter writer = new JsonWriter(out);
+            writer.beginObject();
+            writer.name("timestamp").value(breadcrumb.timestamp);
+            writer.name("type").value(breadcrumb.type.value);
+            // JSONObject.put drops null values, so these are left out rather than written as null.
+            if (breadcrumb.message != null) {
+                writer.name("message").value(breadcrumb.message);
+            }
+            if (breadcrumb.category != null) {
+                writer.name("category").value(breadcrumb.category);
+            }
+            writer.name("level").value(breadcrumb.level.value);
+            writer.name("data").map(breadcrumb.data);
+            writer.endObject();
+            return out.toString();
+        }
+
         void setMaxBreadcrumbs(int maxBreadcrumbs) {
-            maxBreadcrumbs = Math.min(200, Math.max(0, maxBreadcrumbs));
-            this.maxBreadcrumbs.set(maxBreadcrumbs);
+            maxBreadcrumbs = Math.min(MAX_BREADCRUMBS, Math.max(0, maxBreadcrumbs));
+            final int previous = this.maxBreadcrumbs.getAndSet(maxBreadcrumbs);
+            if (maxBreadcrumbs < previous) {
+                // Forget the crumbs that no longer fit, so raising the limit again doesn't bring
+                // them back.
+                final long newFloor = next.get() - maxBreadcrumbs;
+                long current;
+                while ((current = floor.get()) < newFloor && !floor.compareAndSet(current, newFloor)) {
+                    // retry
+                }
+            }
         }
 
     }
@@ -706,51 +1982,66 @@ public class Sentry {
             SentryEventLevel.INFO));
     }
 
-    private static class SentryEventRequest implements Serializable {
+    static class SentryEventRequest implements Serializable {
+
+        // The value this class always had implicitly, so requests serialized by older versions
+        // of the library can still be read back. Storage no longer uses serialization itself.
+        private static final long serialVersionUID = -3109600131469712414L;
+
         final String requestData;
         final UUID uuid;
+        // For deciding what the offline cache discards first. Null when read back from storage.
+        final transient SentryEventLevel level;
 
         SentryEventRequest(SentryEventBuilder builder) {
-            this.requestData = new JSONObject(builder.event).toString();
-            this.uuid = UUID.randomUUID();
+            this(UUID.randomUUID(), JsonWriter.toJson(builder.event), levelOf(builder.event.get("level")));
+        }
+
+        SentryEventRequest(UUID uuid, String requestData) {
+            this(uuid, requestData, null);
+        }
+
+        private SentryEventRequest(UUID uuid, String requestData, SentryEventLevel level) {
+            this.requestData = requestData;
+            this.uuid = uuid;
+            this.level = level;
+        }
+
+        private static SentryEventLevel levelOf(Object value) {
+            for (SentryEventLevel level : SentryEventLevel.values()) {
+                if (level.value.equals(value)) {
+                    return level;
+                }
+            }
+            return null;
         }
 
         @Override
         public boolean equals(Object other) {
             final boolean sameClass = other instanceof SentryEventRequest;
-            return sameClass && uuid == ((SentryEventRequest) other).uuid;
+            return sameClass && uuid.equals(((SentryEventRequest) other).uuid);
         }
 
-    }
+        @Override
+        public int hashCode() {
+            return uuid.hashCode();
+        }
 
-    /**
-     * The Sentry server assumes the time is in UTC.
-     * The timestamp should be in ISO 8601 format, without a timezone.
-     */
-    private static DateFormat iso8601() {
-        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
-        format.setTimeZone(TimeZone.getTimeZone("UTC"));
-        return format;
     }
 
     public static class SentryEventBuilder implements Serializable {
 
         private static final long serialVersionUID = -8589756678369463988L;
 
-        // Match packages names that start with some well-known internal class-paths:
-        // java.*
-        // android.*
-        // com.android.*
-        // com.google.android.*
-        // dalvik.system.*
-        static final String isInternalPackage = "^(java|android|com\\.android|com\\.google\\.android|dalvik\\.system)\\..*";
-
-        private final static DateFormat timestampFormat = iso8601();
-
         final Map<String, Object> event;
 
         public JSONObject toJSON() {
-            return new JSONObject(event);
+            try {
+                return new JSONObject(JsonWriter.toJson(event));
+            } catch (JSONException e) {
+                Log.e(TAG, "Unable to convert event to JSON", e);
+                return new JSONObject();
+            }
         }
 
         public SentryEventBuilder() {
@@ -763,12 +2054,10 @@ public class Sentry {
         public SentryEventBuilder(Throwable t, SentryEventLevel level) {
             this();
 
-            String culprit = getCause(t, t.getMessage());
-
-            this.setMessage(t.getMessage())
-                .setCulprit(culprit)
-                .setLevel(level)
-                .setException(t);
+            this.setException(t)
+                .setMessage(t.getMessage())
+                .setCulprit(getCause(t, t.getMessage()))
+                .setLevel(level);
         }
 
         /**
@@ -784,12 +2073,15 @@ public class Sentry {
 
         /**
          * "timestamp": "2011-05-02T17:41:36"
+         * <p>
+         * The Sentry server assumes the time is in UTC.
+         * The timestamp should be in ISO 8601 format, without a timezone.
          *
          * @param timestamp Timestamp
          * @return SentryEventBuilder
          */
         public SentryEventBuilder setTimestamp(long timestamp) {
-            event.put("timestamp", timestampFormat.format(new Date(timestamp)));
+            event.put("timestamp", Iso8601.format(timestamp));
             return this;
         }
 
@@ -968,67 +2260,17 @@ public class Sentry {
          * @return SentryEventBuilder
          */
         public SentryEventBuilder setException(Throwable t) {
-            JSONArray values = new JSONArray();
+            final ExceptionLimits limits = Sentry.getInstance().exceptionLimits;
+            final List<ExceptionValue> values = new ArrayList<>();
 
-            while (t != null) {
-                JSONObject exception = new JSONObject();
-
-                try {
-                    exception.put("type", t.getClass().getSimpleName());
-                    exception.put("value", t.getMessage());
-                    exception.put("module", t.getClass().getPackage().getName());
-                    exception.put("stacktrace", getStackTrace(t.getStackTrace()));
-
-                    values.put(exception);
-                } catch (JSONException e) {
-                    Log.e(TAG, "Failed to build sentry report for " + t, e);
-                }
-
-                t = t.getCause();
-            }
-
-            JSONObject exceptionReport = new JSONObject();
-
-            try {
-                exceptionReport.put("values", values);
-                event.put("exception", exceptionReport);
-            } catch (JSONException e) {
-                Log.e(TAG, "Unable to attach exception to event " + values, e);
+            for (Throwable cause : limits.causes(t)) {
+                values.add(new ExceptionValue(cause, limits));
             }
 
+            event.put("exception", new ExceptionInterface(values));
             return this;
         }
 
-        private static JSONObject getStackTrace(StackTraceElement[] stackFrames) {
-
-            JSONObject stacktrace  = new JSONObject();
-
-            try {
-                JSONArray frameList = new JSONArray();
-
-                // Java stack frames are in the opposite order from what the Sentry client API expects.
-                // > The zeroth element of the array (assuming the array's length is non-zero)
-                // > represents the top of the stack, which is the last method invocation in the
-                // > sequence.
-                // See:
-                // https://docs.oracle.com/javase/7/docs/api/java/lang/Throwable.html#getStackTrace()
-                // https://docs.sentry.io/clientdev/interfaces/#failure-interfaces
-                //
-                // This code uses array indices rather a foreach construct since there is no built-in
-                // reverse iterator in the Java standard library. To use a foreach loop would require
-                // calling Collections.reverse which would require copying the array to a list.
-                for (int i = stackFrames.length - 1; i >= 0; i--) {
-                    frameList.put(frameJson(stackFrames[i]));
-                }
-
-                stacktrace.put("frames", frameList);
-            } catch (JSONException e) {
-                Log.e(TAG, "Error serializing stack frames", e);
-            }
-
-            return stacktrace;
-        }
-
         /**
          * Add a stack trace to the event.
          * A stack trace for the current thread can be obtained by using
@@ -1038,36 +2280,123 @@ public class Sentry {
          * @see Thread#getStackTrace()
          */
         public SentryEventBuilder setStackTrace(StackTraceElement[] stackTrace) {
-            this.event.put("stacktrace", getStackTrace(stackTrace));
+            this.event.put("stacktrace", new StackTrace(Sentry.getInstance().exceptionLimits.apply(stackTrace)));
             return this;
         }
 
-        // Convert a StackTraceElement to a sentry.interfaces.stacktrace.Stacktrace JSON object.
-        static JSONObject frameJson(StackTraceElement ste) throws JSONException {
-            final JSONObject frame = new JSONObject();
+        // Write a StackTraceElement as a sentry.interfaces.stacktrace.Stacktrace frame.
+        static void writeFrame(JsonWriter writer, StackTraceElement ste, FrameClassifier classifier) {
+            writer.beginObject();
 
             final String method = ste.getMethodName();
             if (Present(method)) {
-                frame.put("function", method);
+                writer.name("function").value(method);
             }
 
             final String fileName = ste.getFileName();
             if (Present(fileName)) {
-                frame.put("filename", fileName);
+                writer.name("filename").value(fileName);
             }
 
             int lineno = ste.getLineNumber();
             if (!ste.isNativeMethod() && lineno >= 0) {
-                frame.put("lineno", lineno);
+                writer.name("lineno").value(lineno);
             }
 
             String className = ste.getClassName();
-            frame.put("module", className);
-
+            writer.name("module").value(className);
             // Take out some of the system packages to improve the exception folding on the sentry server
-            frame.put("in_app", !className.matches(isInternalPackage));
+            writer.name("in_app").value(classifier.isInApp(className));
+
+            writer.endObject();
+        }
+
+        /**
+         * sentry.interfaces.Stacktrace. The frames are written straight to the event's JSON when it
+         * is serialized instead of being converted to a JSONObject per frame up front, and come
+         * from the {@link FrameCache} when the same frames have been seen before.
+         * <p>
+         * Frames left out by the {@link ExceptionLimits} are replaced by a placeholder frame with
+         * the number of frames it stands for, which stays out of the culprit and grouping by not
+         * being in-app.
+         */
+        static final class StackTrace implements JsonWriter.Streamable {
+            final StackTraceElement[] frames;
+            // Frames dropped after each frame, or null if none were.
+            final int[] omitted;
+
+            StackTrace(ExceptionLimits.Frames trace) {
+                this.frames = trace.frames;
+                this.omitted = trace.omitted;
+            }
+
+            @Override
+            public void writeJson(JsonWriter writer) {
+                final FrameCache cache = Sentry.getInstance().frameCache;
+                if (omitted == null) {
+                    writer.raw(cache.trace(frames));
+                    return;
+                }
+
+                writer.beginObject().name("frames").beginArray();
+                // Outermost call first, as in FrameCache.trace.
+                for (int i = frames.length - 1; i >= 0; i--) {
+                    if (omitted[i] > 0) {
+                        writer.beginObject();
+                        writer.name("function").value("<frames omitted>");
+                        writer.name("in_app").value(false);
+                        writer.name("vars").beginObject().name("count").value(omitted[i]).endObject();
+                        writer.endObject();
+                    }
+                    writer.raw(cache.frame(frames[i]));
+                }
+                writer.endArray().endObject();
+            }
+        }
+
+        // One throwable in the cause chain.
+        static final class ExceptionValue {
+            final String type;
+            final String value;
+            final String module;
+            final StackTrace stacktrace;
+
+            ExceptionValue(Throwable t, ExceptionLimits limits) {
+                final Package pkg = t.getClass().getPackage();
+                this.type = t.getClass().getSimpleName();
+                this.value = t.getMessage();
+                this.module = pkg == null ? null : pkg.getName();
+                this.stacktrace = new StackTrace(limits.apply(t.getStackTrace()));
+            }
+        }
+
+        // sentry.interfaces.Exception
+        static final class ExceptionInterface implements JsonWriter.Streamable {
+            final List<ExceptionValue> values;
+
+            ExceptionInterface(List<ExceptionValue> values) {
+                this.values = values;
+            }
 
-            return frame;
+            @Override
+            public void writeJson(JsonWriter writer) {
+                writer.beginObject().name("values").beginArray();
+                for (ExceptionValue exception : values) {
+                    writer.beginObject();
+                    writer.name("type").value(exception.type);
+                    // JSONObject.put drops null values, so these are left out rather than written as null.
+                    if (exception.value != null) {
+                        writer.name("value").value(exception.value);
+                    }
+                    if (exception.module != null) {
+                        writer.name("module").value(exception.module);
+                    }
+                    writer.name("stacktrace");
+                    exception.stacktrace.writeJson(writer);
+                    writer.endObject();
+                }
+                writer.endArray().endObject();
+            }
         }
     }
 
@@ -1100,105 +2429,6 @@ public class Sentry {
     }
 
 
-    private static JSONObject readContexts(Context context, AppInfo appInfo) {
-        final JSONObject contexts = new JSONObject();
-        try {
-            contexts.put("os", osContext());
-            contexts.put("device", deviceContext(context));
-            contexts.put("package", packageContext(appInfo));
-        } catch (JSONException e) {
-            Log.e(TAG, "Failed to build device contexts", e);
-        }
-        return contexts;
-    }
-
-    /**
-     * Read the device and build into a map.
-     * <p>
-     * Not implemented:
-     * -  battery_level
-     * If the device has a battery this can be an integer defining the battery level (in
-     * the range 0-100). (Android requires registration of an intent to query the battery).
-     * - name
-     * The name of the device. This is typically a hostname.
-     * <p>
-     * See https://docs.getsentry.com/hosted/clientdev/interfaces/#context-types
-     */
-    private static JSONObject deviceContext(Context context) {
-        final JSONObject device = new JSONObject();
-        try {
-            // The family of the device. This is normally the common part of model names across
-            // generations. For instance iPhone would be a reasonable family, so would be Samsung Galaxy.
-            device.put("family", Build.BRAND);
-
-            // The model name. This for instance can be Samsung Galaxy S3.
-            device.put("model", Build.PRODUCT);
-
-            // An internal hardware revision to identify the device exactly.
-            device.put("model_id", Build.MODEL);
-
-            final String architecture = System.getProperty("os.arch");
-            if (Present(architecture)) {
-                device.put("arch", architecture);
-            }
-
-            final int orient = context.getResources().getConfiguration().orientation;
-            device.put("orientation", orient == Configuration.ORIENTATION_LANDSCAPE ?
-                "landscape" : "portrait");
-
-            // Read screen resolution in the format "800x600"
-            // Normalised to have wider side first.
-            final Object windowManager = context.getSystemService(Context.WINDOW_SERVICE);
-            if (windowManager != null && windowManager instanceof WindowManager) {
-                final DisplayMetrics metrics = new DisplayMetrics();
-                ((WindowManager) windowManager).getDefaultDisplay().getMetrics(metrics);
-                device.put("screen_resolution",
-                    String.format("%sx%s",
-                        Math.max(metrics.widthPixels, metrics.heightPixels),
-                        Math.min(metrics.widthPixels, metrics.heightPixels)));
-            }
-
-        } catch (Exception e) {
-            Log.e(TAG, "Error reading device context", e);
-        }
-        return device;
-    }
-
-    private static JSONObject osContext() {
-        final JSONObject os = new JSONObject();
-        try {
-            os.put("type", "os");
-            os.put("name", "Android");
-            os.put("version", Build.VERSION.RELEASE);
-            os.put("build", Integer.toString(Build.VERSION.SDK_INT));
-            final String kernelVersion = System.getProperty("os.version");
-            if (Present(kernelVersion)) {
-                os.put("kernel_version", kernelVersion);
-            }
-
-        } catch (Exception e) {
-            Log.e(TAG, "Error reading OS context", e);
-        }
-        return os;
-    }
-
-    /**
-     * Read the package data into map to be sent as an event context item.
-     * This is not a built-in context type.
-     */
-    private static JSONObject packageContext(AppInfo appInfo) {
-        final JSONObject pack = new JSONObject();
-        try {
-            pack.put("type", "package");
-            pack.put("name", appInfo.name);
-            pack.put("version_name", appInfo.versionName);
-            pack.put("version_code", Integer.toString(appInfo.versionCode));
-        } catch (JSONException e) {
-            Log.e(TAG, "Error reading package context", e);
-        }
-        return pack;
-    }
-
     /**
      * Map from HTTP status code to reason description.
      * Sentry HTTP breadcrumbs expect a text description of the HTTP status-code.
@@ -1258,7 +2488,7 @@ public class Sentry {
     /**
      * Take the idea of `present?` from ActiveSupport.
      */
-    private static boolean Present(String s) {
+    static boolean Present(String s) {
         return s != null && s.length() > 0;
     }
 
@@ -0,0 +1,33 @@
+package com.joshdholtz.sentry;
+
+import java.io.IOException;
+
+/**
+ * Delivers serialized events to a Sentry server.
+ */
+interface Transport {
+
+    /**
+     * What the server said about an event: its status and the headers that control rate limiting.
+     */
+    final class Response {
+        final int status;
+        final String retryAfter;
+        final String rateLimits;
+
+        Response(int status, String retryAfter, String rateLimits) {
+            this.status = status;
+            this.retryAfter = retryAfter;
+            this.rateLimits = rateLimits;
+        }
+    }
+
+    /**
+     * Send one event.
+     *
+     * @param requestData the JSON encoded event.
+     * @return the server's response.
+     * @throws IOException if the event could not be delivered.
+     */
+    Response send(String requestData) throws IOException;
+}
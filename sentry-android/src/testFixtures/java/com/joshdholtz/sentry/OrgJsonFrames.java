@@ -0,0 +1,48 @@
+package com.joshdholtz.sentry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Stack frames as the client used to build them, one org.json object per frame. Kept as the
+ * reference for the streamed frames to match.
+ */
+final class OrgJsonFrames {
+
+    private OrgJsonFrames() {
+    }
+
+    static JSONObject stackTrace(StackTraceElement[] stackFrames) throws JSONException {
+        final JSONArray frameList = new JSONArray();
+        for (int i = stackFrames.length - 1; i >= 0; i--) {
+            frameList.put(frame(stackFrames[i]));
+        }
+        return new JSONObject().put("frames", frameList);
+    }
+
+    static JSONObject frame(StackTraceElement ste) throws JSONException {
+        final JSONObject frame = new JSONObject();
+
+        final String method = ste.getMethodName();
+        if (method != null && method.length() > 0) {
+            frame.put("function", method);
+        }
+
+        final String fileName = ste.getFileName();
+        if (fileName != null && fileName.length() > 0) {
+            frame.put("filename", fileName);
+        }
+
+        final int lineno = ste.getLineNumber();
+        if (!ste.isNativeMethod() && lineno >= 0) {
+            frame.put("lineno", lineno);
+        }
+
+        final String className = ste.getClassName();
+        frame.put("module", className);
+        frame.put("in_app", Sentry.LazyHolder.instance.frameClassifier.isInApp(className));
+
+        return frame;
+    }
+}
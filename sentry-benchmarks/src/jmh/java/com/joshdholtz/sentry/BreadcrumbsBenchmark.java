@@ -0,0 +1,50 @@
+package com.joshdholtz.sentry;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breadcrumb recording alone, and with several writers racing a reader taking snapshots.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BreadcrumbsBenchmark {
+
+    @Setup
+    public void setUp() {
+        Sentry.setMaxBreadcrumbs(100);
+        for (int i = 0; i < 100; i++) {
+            Sentry.addBreadcrumb("setup", "crumb " + i);
+        }
+    }
+
+    @Benchmark
+    public void push() {
+        Sentry.addBreadcrumb("ui.click", "button");
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public void contendedPush() {
+        Sentry.addBreadcrumb("ui.click", "button");
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public JSONArray contendedCurrent() {
+        return Sentry.LazyHolder.instance.breadcrumbs.current();
+    }
+}
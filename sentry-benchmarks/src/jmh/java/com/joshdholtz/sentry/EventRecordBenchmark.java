@@ -0,0 +1,72 @@
+package com.joshdholtz.sentry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a stored event into bytes and back: the binary record format against the
+ * Java serialization it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventRecordBenchmark {
+
+    private Sentry.SentryEventRequest request;
+    private byte[] record;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        request = new Sentry.SentryEventRequest(new Sentry.SentryEventBuilder()
+            .setMessage("stored")
+            .setException(Throwables.chain(30, 2)));
+        record = EventRecord.encode(request);
+        serialized = serialize(request);
+    }
+
+    private static byte[] serialize(Sentry.SentryEventRequest request) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(request);
+        oos.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeRecord() throws IOException {
+        return EventRecord.encode(request);
+    }
+
+    @Benchmark
+    public Sentry.SentryEventRequest decodeRecord() throws IOException {
+        return EventRecord.decode(request.uuid, record);
+    }
+
+    @Benchmark
+    public byte[] encodeSerialized() throws IOException {
+        return serialize(request);
+    }
+
+    @Benchmark
+    public Object decodeSerialized() throws IOException, ClassNotFoundException {
+        final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.joshdholtz.sentry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of attaching an exception to an event, for a range of stack depths. Traces deeper than
+ * the default frame limit show what {@link ExceptionLimits} saves when the event is serialized.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExceptionBenchmark {
+
+    @Param({"10", "60", "200", "1024"})
+    int depth;
+
+    @Param({"1", "3"})
+    int causes;
+
+    private Throwable throwable;
+    private StackTraceElement appFrame;
+    private StackTraceElement frameworkFrame;
+
+    @Setup
+    public void setUp() {
+        throwable = Throwables.chain(depth, causes);
+        final StackTraceElement[] trace = Throwables.trace(2);
+        frameworkFrame = trace[0];
+        appFrame = trace[1];
+    }
+
+    @Benchmark
+    public Sentry.SentryEventBuilder setException() {
+        return new Sentry.SentryEventBuilder().setException(throwable);
+    }
+
+    // setException plus culprit resolution, as captureException does it.
+    @Benchmark
+    public Sentry.SentryEventBuilder exceptionEvent() {
+        return new Sentry.SentryEventBuilder(throwable, Sentry.SentryEventLevel.ERROR);
+    }
+
+    @Benchmark
+    public String serializeException() {
+        return JsonWriter.toJson(new Sentry.SentryEventBuilder().setException(throwable).event);
+    }
+
+    // Encoding a single frame that isn't cached yet.
+    @Benchmark
+    public String writeFrameApp() {
+        final StringBuilder out = new StringBuilder();
+        Sentry.SentryEventBuilder.writeFrame(new JsonWriter(out), appFrame, FrameClassifier.DEFAULT);
+        return out.toString();
+    }
+
+    @Benchmark
+    public String writeFrameFramework() {
+        final StringBuilder out = new StringBuilder();
+        Sentry.SentryEventBuilder.writeFrame(new JsonWriter(out), frameworkFrame, FrameClassifier.DEFAULT);
+        return out.toString();
+    }
+}
@@ -0,0 +1,94 @@
+package com.joshdholtz.sentry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a captured event into its request body: a 50 frame exception with 3 causes,
+ * plus tags, extra and breadcrumbs.
+ * <p>
+ * {@code legacyOrgJson} reproduces the old path, which built a JSONObject per frame and then
+ * serialized the whole tree, for comparison. {@code requestUncachedFrames} starts from an empty
+ * frame cache each time, like the first occurrence of an exception. Run with the gc profiler to
+ * see allocation per event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    private Throwable throwable;
+    private Sentry.SentryEventBuilder builder;
+
+    @Setup
+    public void setUp() {
+        throwable = Throwables.chain(50, 3);
+        for (int i = 0; i < 100; i++) {
+            Sentry.addBreadcrumb("ui.click", "Clicked button " + i);
+        }
+        builder = event(throwable);
+    }
+
+    private static Sentry.SentryEventBuilder event(Throwable throwable) {
+        return new Sentry.SentryEventBuilder()
+            .setMessage(throwable.getMessage())
+            .setCulprit("com.example.app.feature.Widget1.onEvent(Widget.java:1)")
+            .setLevel(Sentry.SentryEventLevel.ERROR)
+            .setException(throwable)
+            .addTag("screen", "checkout")
+            .addExtra("cart_size", "3");
+    }
+
+    @Benchmark
+    public Sentry.SentryEventRequest request() {
+        builder.event.put("breadcrumbs", Sentry.LazyHolder.instance.breadcrumbs.current());
+        return new Sentry.SentryEventRequest(builder);
+    }
+
+    @Benchmark
+    public Sentry.SentryEventRequest requestUncachedFrames() {
+        Sentry.LazyHolder.instance.frameCache = new FrameCache(FrameClassifier.DEFAULT);
+        builder.event.put("breadcrumbs", Sentry.LazyHolder.instance.breadcrumbs.current());
+        return new Sentry.SentryEventRequest(builder);
+    }
+
+    @Benchmark
+    public Sentry.SentryEventRequest captureAndSerialize() {
+        final Sentry.SentryEventBuilder b = event(throwable);
+        b.event.put("breadcrumbs", Sentry.LazyHolder.instance.breadcrumbs.current());
+        return new Sentry.SentryEventRequest(b);
+    }
+
+    @Benchmark
+    public String legacyOrgJson() throws JSONException {
+        final Map<String, Object> event = new HashMap<>(event(throwable).event);
+        event.put("breadcrumbs", Sentry.LazyHolder.instance.breadcrumbs.current());
+
+        final JSONArray values = new JSONArray();
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            final JSONObject exception = new JSONObject();
+            exception.put("type", t.getClass().getSimpleName());
+            exception.put("value", t.getMessage());
+            exception.put("module", t.getClass().getPackage().getName());
+            exception.put("stacktrace", OrgJsonFrames.stackTrace(t.getStackTrace()));
+            values.put(exception);
+        }
+        final JSONObject exceptionReport = new JSONObject();
+        exceptionReport.put("values", values);
+        event.put("exception", exceptionReport);
+
+        return new JSONObject(event).toString();
+    }
+}
@@ -0,0 +1,71 @@
+package com.joshdholtz.sentry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of persisting and then acknowledging one event while a backlog of unsent events is
+ * already on disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StorageBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int backlog;
+
+    private File directory;
+    private Sentry.InternalStorage storage;
+    private Sentry.SentryEventRequest request;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = File.createTempFile("sentry-storage", "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        final Sentry.SentryEventBuilder builder = new Sentry.SentryEventBuilder()
+            .setMessage("backlog")
+            .setException(Throwables.chain(30, 2));
+
+        storage = new Sentry.InternalStorage(directory, 0, 0, 0);
+        for (int i = 0; i < backlog; i++) {
+            storage.addRequest(new Sentry.SentryEventRequest(builder));
+        }
+        request = new Sentry.SentryEventRequest(builder);
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public void addThenRemove() {
+        storage.addRequest(request);
+        storage.removeBuilder(request);
+    }
+}
@@ -0,0 +1,35 @@
+package com.joshdholtz.sentry;
+
+/**
+ * Builds exceptions with synthetic stack traces of a given shape.
+ */
+final class Throwables {
+
+    private Throwables() {
+    }
+
+    /**
+     * @param depth the number of frames in each trace.
+     * @param causes the length of the cause chain, including the outermost throwable.
+     */
+    static Throwable chain(int depth, int causes) {
+        Throwable t = null;
+        for (int c = 0; c < causes; c++) {
+            final Throwable next = new IllegalStateException("cause " + c, t);
+            next.setStackTrace(trace(depth));
+            t = next;
+        }
+        return t;
+    }
+
+    // A mix of framework and app frames, roughly what a crash on the main thread looks like.
+    static StackTraceElement[] trace(int depth) {
+        final StackTraceElement[] trace = new StackTraceElement[depth];
+        for (int i = 0; i < depth; i++) {
+            trace[i] = i % 3 == 0
+                ? new StackTraceElement("android.os.Handler", "dispatchMessage", "Handler.java", 95 + i)
+                : new StackTraceElement("com.example.app.feature.Widget" + i, "onEvent", "Widget.java", i);
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,12 @@
+package android.app;
+
+import android.content.Context;
+
+import java.io.File;
+
+public class Activity extends Context {
+
+    public Activity(File filesDir) {
+        super(filesDir);
+    }
+}
@@ -0,0 +1,66 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.net.ConnectivityManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+/**
+ * JVM stand-in for android.content.Context. Files live under a directory chosen by the benchmark.
+ */
+public class Context {
+
+    public static final String CONNECTIVITY_SERVICE = "connectivity";
+    public static final String WINDOW_SERVICE = "window";
+    public static final int MODE_PRIVATE = 0;
+
+    private final File filesDir;
+
+    public Context(File filesDir) {
+        this.filesDir = filesDir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        filesDir.mkdirs();
+        return filesDir;
+    }
+
+    public FileOutputStream openFileOutput(String name, int mode) throws FileNotFoundException {
+        return new FileOutputStream(new File(getFilesDir(), name));
+    }
+
+    public FileInputStream openFileInput(String name) throws FileNotFoundException {
+        return new FileInputStream(new File(getFilesDir(), name));
+    }
+
+    public Object getSystemService(String name) {
+        return CONNECTIVITY_SERVICE.equals(name) ? new ConnectivityManager() : null;
+    }
+
+    public PackageManager getPackageManager() {
+        return new PackageManager();
+    }
+
+    public String getPackageName() {
+        return "com.joshdholtz.sentry.benchmarks";
+    }
+
+    public Resources getResources() {
+        return new Resources();
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return null;
+    }
+
+    public void registerComponentCallbacks(ComponentCallbacks callbacks) {
+    }
+}
@@ -0,0 +1,7 @@
+package android.content.pm;
+
+public class PackageInfo {
+    public String packageName = "com.joshdholtz.sentry.benchmarks";
+    public String versionName = "1.0";
+    public int versionCode = 1;
+}
@@ -0,0 +1,17 @@
+package android.content.pm;
+
+public class PackageManager {
+
+    public static final int PERMISSION_GRANTED = 0;
+
+    public static class NameNotFoundException extends Exception {
+    }
+
+    public int checkPermission(String permission, String packageName) {
+        return PERMISSION_GRANTED;
+    }
+
+    public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+        return new PackageInfo();
+    }
+}
@@ -0,0 +1,8 @@
+package android.content.res;
+
+public class Resources {
+
+    public Configuration getConfiguration() {
+        return new Configuration();
+    }
+}
@@ -0,0 +1,10 @@
+package android.net;
+
+public class ConnectivityManager {
+
+    public static final String CONNECTIVITY_ACTION = "android.net.conn.CONNECTIVITY_CHANGE";
+
+    public NetworkInfo getActiveNetworkInfo() {
+        return new NetworkInfo();
+    }
+}
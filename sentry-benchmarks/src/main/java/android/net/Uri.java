@@ -0,0 +1,63 @@
+package android.net;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * JVM stand-in for android.net.Uri, backed by java.net.URI.
+ */
+public class Uri {
+
+    private final URI uri;
+
+    private Uri(URI uri) {
+        this.uri = uri;
+    }
+
+    public static Uri parse(String uriString) {
+        try {
+            return new Uri(new URI(uriString));
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public String getScheme() {
+        return uri.getScheme();
+    }
+
+    public String getHost() {
+        return uri.getHost();
+    }
+
+    public int getPort() {
+        return uri.getPort();
+    }
+
+    public String getAuthority() {
+        return uri.getRawAuthority();
+    }
+
+    public String getPath() {
+        return uri.getPath();
+    }
+
+    public String getQueryParameter(String key) {
+        final String query = uri.getQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            final String[] parts = pair.split("=", 2);
+            if (parts[0].equals(key)) {
+                return parts.length > 1 ? parts[1] : "";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return uri.toString();
+    }
+}
@@ -0,0 +1,12 @@
+package android.os;
+
+public class Build {
+    public static final String BRAND = "jvm";
+    public static final String PRODUCT = "benchmark";
+    public static final String MODEL = "benchmark";
+
+    public static class VERSION {
+        public static final String RELEASE = "7.1";
+        public static final int SDK_INT = 25;
+    }
+}
@@ -0,0 +1,17 @@
+package android.os;
+
+public class Handler {
+    public Handler(Looper looper) {
+    }
+
+    public boolean post(Runnable runnable) {
+        return false;
+    }
+
+    public boolean postDelayed(Runnable runnable, long delayMillis) {
+        return false;
+    }
+
+    public void removeCallbacks(Runnable runnable) {
+    }
+}
@@ -0,0 +1,11 @@
+package android.os;
+
+public class SystemClock {
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    public static long uptimeMillis() {
+        return elapsedRealtime();
+    }
+}
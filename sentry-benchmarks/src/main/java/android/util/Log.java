@@ -0,0 +1,29 @@
+package android.util;
+
+/**
+ * Logging is a no-op in benchmarks, except for errors which would otherwise go unnoticed.
+ */
+public class Log {
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+
+    public static int e(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        System.err.println(tag + ": " + msg + " " + tr);
+        return 0;
+    }
+}
@@ -0,0 +1,11 @@
+package android.view;
+
+import android.util.DisplayMetrics;
+
+public class Display {
+
+    public void getMetrics(DisplayMetrics outMetrics) {
+        outMetrics.widthPixels = 1080;
+        outMetrics.heightPixels = 1920;
+    }
+}
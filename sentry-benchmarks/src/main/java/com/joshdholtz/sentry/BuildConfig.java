@@ -0,0 +1,8 @@
+package com.joshdholtz.sentry;
+
+/**
+ * Stands in for the BuildConfig class that the Android build generates.
+ */
+public final class BuildConfig {
+    public static final String SENTRY_ANDROID_VERSION = "benchmark";
+}